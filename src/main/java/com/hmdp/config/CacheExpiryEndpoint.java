@@ -0,0 +1,31 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.CacheExpiryPolicy;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * ErenMikasa
+ * Date 2024/10/22
+ */
+//查看本实例的缓存写入按过期时间段的分布 确认过期时间已经分散 访问 /actuator/cacheexpiry
+//数值是写入次数 覆盖和删除不会扣减 不代表该时间段实际过期的缓存数
+@Component
+@Endpoint(id = "cacheexpiry")
+public class CacheExpiryEndpoint {
+
+    private final CacheExpiryPolicy expiryPolicy;
+
+    public CacheExpiryEndpoint(CacheExpiryPolicy expiryPolicy) {
+        this.expiryPolicy = expiryPolicy;
+    }
+
+    //key前缀 -> (过期时间段开始时间 -> 写入次数)
+    @ReadOperation
+    public Map<String, Map<String, Long>> writeHistogram() {
+        return expiryPolicy.writeHistogram();
+    }
+}
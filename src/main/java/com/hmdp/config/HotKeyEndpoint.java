@@ -0,0 +1,30 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.HotKeyDetector;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * ErenMikasa
+ * Date 2024/10/22
+ */
+//运维查看当前实例的热点key 访问 /actuator/hotkeys
+@Component
+@Endpoint(id = "hotkeys")
+public class HotKeyEndpoint {
+
+    private final HotKeyDetector hotKeyDetector;
+
+    public HotKeyEndpoint(HotKeyDetector hotKeyDetector) {
+        this.hotKeyDetector = hotKeyDetector;
+    }
+
+    //热点key -> 滑动窗口内估计的访问次数
+    @ReadOperation
+    public Map<String, Long> hotKeys() {
+        return hotKeyDetector.hotKeys();
+    }
+}
@@ -3,11 +3,17 @@ package com.hmdp.config;
 import com.hmdp.utils.LoginInterceptor;
 import com.hmdp.utils.RefreshTokenInterceptor;
 import jakarta.annotation.Resource;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.filter.ShallowEtagHeaderFilter;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.util.List;
+
 /**
  * ErenMikasa
  * Date 2024/10/20
@@ -37,4 +43,19 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/voucher/**"
                 ).order(1);
     }
+
+    //店铺优惠券列表包含实时库存 没有廉价的版本号可用 只能根据响应内容计算ETag 内容未变化时返回304
+    //该过滤器会缓冲整个响应 只节省带宽不节省服务端的查询 其他接口使用ResourceVersions在查询之前判断
+    @Bean
+    public FilterRegistrationBean<ShallowEtagHeaderFilter> shallowEtagHeaderFilter() {
+        FilterRegistrationBean<ShallowEtagHeaderFilter> registration = new FilterRegistrationBean<>(new ShallowEtagHeaderFilter());
+        registration.addUrlPatterns("/voucher/list/*");
+        return registration;
+    }
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        //放在Jackson之前 预先序列化好的结果直接写出
+        converters.add(0, new RawJsonHttpMessageConverter());
+    }
 }
@@ -0,0 +1,57 @@
+package com.hmdp.config;
+
+import com.hmdp.dto.RawJsonResult;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * ErenMikasa
+ * Date 2024/10/22
+ */
+//把RawJsonResult写成与Result相同的JSON：{"success":true,"data":<缓存中的JSON>}
+//缓存中的字节直接写入响应 省去反序列化为实体和再次序列化两个步骤
+public class RawJsonHttpMessageConverter extends AbstractHttpMessageConverter<RawJsonResult> {
+
+    private static final byte[] PREFIX = "{\"success\":true,\"data\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SUFFIX = "}".getBytes(StandardCharsets.UTF_8);
+
+    public RawJsonHttpMessageConverter() {
+        super(StandardCharsets.UTF_8, MediaType.APPLICATION_JSON);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return RawJsonResult.class.isAssignableFrom(clazz);
+    }
+
+    //只用于写出响应
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected RawJsonResult readInternal(Class<? extends RawJsonResult> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("不支持读取RawJsonResult", inputMessage);
+    }
+
+    @Override
+    protected Long getContentLength(RawJsonResult result, MediaType contentType) {
+        return (long) PREFIX.length + result.getJson().length() + SUFFIX.length;
+    }
+
+    @Override
+    protected void writeInternal(RawJsonResult result, HttpOutputMessage outputMessage) throws IOException {
+        OutputStream out = outputMessage.getBody();
+        out.write(PREFIX);
+        result.getJson().writeTo(out);
+        out.write(SUFFIX);
+    }
+}
@@ -0,0 +1,40 @@
+package com.hmdp.config;
+
+import com.hmdp.service.impl.ShopTypeServiceImpl;
+import com.hmdp.utils.NearCache;
+import com.hmdp.utils.RedisBloomFilter;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillSoldOutCache;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+/**
+ * ErenMikasa
+ * Date 2024/10/22
+ */
+//Redis发布订阅监听容器 各实例之间广播缓存失效等消息
+@Configuration
+public class RedisListenerConfig {
+
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                       NearCache nearCache,
+                                                                       RedisBloomFilter bloomFilter,
+                                                                       ShopTypeServiceImpl shopTypeService,
+                                                                       SeckillSoldOutCache soldOutCache) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        //本地缓存失效通知
+        container.addMessageListener(nearCache, new ChannelTopic(RedisConstants.CACHE_INVALIDATE_CHANNEL));
+        //布隆过滤器新增id通知
+        container.addMessageListener(bloomFilter, new ChannelTopic(RedisConstants.BLOOM_ADD_CHANNEL));
+        //店铺类型刷新通知
+        container.addMessageListener(shopTypeService, new ChannelTopic(RedisConstants.CACHE_SHOPTYPE_REFRESH_CHANNEL));
+        //秒杀券售罄/补充库存通知
+        container.addMessageListener(soldOutCache, new ChannelTopic(RedisConstants.SECKILL_SOLD_OUT_CHANNEL));
+        return container;
+    }
+}
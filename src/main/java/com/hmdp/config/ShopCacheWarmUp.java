@@ -0,0 +1,159 @@
+package com.hmdp.config;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.BooleanUtil;
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IShopService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheRebuildScheduler;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SimpleRedisLock;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ErenMikasa
+ * Date 2024/10/22
+ */
+//启动时预热店铺缓存 发布或Redis故障切换后缓存为空 逻辑过期的查询会把所有店铺当作不存在
+//按id分页(keyset)顺序读取tb_shop 每批交给线程池并行序列化并通过pipeline写入逻辑过期数据
+//同一时间只有一个实例预热(分布式锁 结束后释放) 预热成功后写入标记 滚动发布的其他实例在一段时间内直接跳过
+//预热失败只记录日志 不影响应用启动
+@Slf4j
+@Component
+public class ShopCacheWarmUp implements ApplicationRunner {
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Value("${hmdp.cache.warm-up.enabled:true}")
+    private boolean enabled;
+
+    @Value("${hmdp.cache.warm-up.concurrency:8}")
+    private int concurrency;//并行写入的线程数
+
+    @Value("${hmdp.cache.warm-up.batch-size:1000}")
+    private int batchSize;//每批读取的店铺数
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        //预热只是优化 任何异常都只记录日志 不影响应用启动
+        String doneKey = RedisConstants.CACHE_WARM_UP_DONE_KEY + RedisConstants.CACHE_SHOP_KEY;
+        String lockKey = CacheRebuildScheduler.lockKey(RedisConstants.CACHE_SHOP_KEY + "warm-up");
+        String owner = UUID.randomUUID().toString(true);//锁的持有者标识 释放时只删除自己的锁
+        try {
+            if (BooleanUtil.isTrue(stringRedisTemplate.hasKey(doneKey))) {
+                log.info("其他实例刚完成店铺缓存预热，跳过");
+                return;
+            }
+            Boolean isLock = stringRedisTemplate.opsForValue().setIfAbsent(lockKey, owner,
+                    RedisConstants.CACHE_WARM_UP_LOCK_TTL, TimeUnit.MINUTES);
+            if (!BooleanUtil.isTrue(isLock)) {
+                log.info("其他实例正在进行店铺缓存预热，跳过");
+                return;
+            }
+        } catch (Exception e) {
+            log.error("店铺缓存预热获取锁失败，跳过预热", e);
+            return;
+        }
+        try {
+            //全部成功后写入标记 滚动发布的其他实例在一段时间内直接跳过 失败时不写 下一个实例会重新预热
+            if (warmUp()) {
+                stringRedisTemplate.opsForValue().set(doneKey, RedisConstants.LOCK_SHOP_value,
+                        RedisConstants.CACHE_WARM_UP_DONE_TTL, TimeUnit.MINUTES);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("店铺缓存预热被中断");
+        } catch (Exception e) {
+            log.error("店铺缓存预热中止", e);
+        } finally {
+            try {
+                stringRedisTemplate.execute(SimpleRedisLock.UNLOCK_SCRIPT, Collections.singletonList(lockKey), owner);
+            } catch (Exception e) {
+                log.warn("释放店铺缓存预热锁失败 锁将在有效期后过期", e);
+            }
+        }
+    }
+
+    //分批预热 返回是否全部写入成功 读取数据库失败时抛出异常
+    private boolean warmUp() throws InterruptedException {
+        Counter warmed = Counter.builder("cache.warmup.keys")
+                .description("预热写入的缓存数")
+                .tag("prefix", RedisConstants.CACHE_SHOP_KEY)
+                .register(meterRegistry);
+        Counter failed = Counter.builder("cache.warmup.failed")
+                .description("预热失败的缓存数")
+                .tag("prefix", RedisConstants.CACHE_SHOP_KEY)
+                .register(meterRegistry);
+        double failedBefore = failed.count();
+
+        long begin = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        //限制已读取但未写入的批次数 避免数据库读取快于Redis写入时占用过多内存
+        int maxInFlight = concurrency * 2;
+        Semaphore permits = new Semaphore(maxInFlight);
+        try {
+            long lastId = 0;
+            while (true) {
+                //按id分页 避免offset越往后越慢
+                List<Shop> shops = shopService.query()
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("limit " + batchSize)
+                        .list();
+                if (shops.isEmpty()) {
+                    break;
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+                permits.acquire();
+                executor.execute(() -> {
+                    try {
+                        //过期时间由CacheClient加上随机偏移 避免所有店铺在同一时刻逻辑过期
+                        cacheClient.setBatchWithLogicalExpire(RedisConstants.CACHE_SHOP_KEY, shops, Shop::getId,
+                                RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+                        warmed.increment(shops.size());
+                    } catch (Exception e) {
+                        failed.increment(shops.size());
+                        log.error("店铺缓存预热失败，id范围:{}-{}", shops.get(0).getId(), shops.get(shops.size() - 1).getId(), e);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        } finally {
+            //等待已提交的批次写入完成
+            permits.acquire(maxInFlight);
+            executor.shutdown();
+        }
+        log.info("店铺缓存预热完成，写入{}个，失败{}个，耗时{}ms",
+                (long) warmed.count(), (long) failed.count(), System.currentTimeMillis() - begin);
+        return failed.count() == failedBefore;
+    }
+}
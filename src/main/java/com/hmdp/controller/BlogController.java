@@ -9,10 +9,16 @@ import com.hmdp.entity.Blog;
 import com.hmdp.entity.User;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.ResourceVersions;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import jakarta.annotation.Resource;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.util.List;
 
@@ -28,6 +34,8 @@ public class BlogController {
     @Resource
     private IBlogService blogService;
 
+    @Resource
+    private ResourceVersions resourceVersions;
 
     @PostMapping
     public Result saveBlog(@RequestBody Blog blog) {
@@ -63,9 +71,24 @@ public class BlogController {
        return blogService.queryHotBlog(current);
     }
 
+    //响应中包含当前用户是否点赞 只允许浏览器缓存
+    //ETag由博客版本号、作者版本号和当前用户组成 响应中的作者昵称和头像来自作者的缓存 作者信息变化时ETag也随之变化
+    //只读取博客内容(缓存)得到作者id 在查询作者信息和点赞状态之前判断
     @GetMapping("/{id}")
-    public Result queryBlogById(@PathVariable("id") Long id) {
-        return blogService.queryBlogById(id);
+    public Result queryBlogById(@PathVariable("id") Long id, WebRequest request, HttpServletResponse response) {
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().cachePrivate().getHeaderValue());
+        Blog blog = blogService.queryBlog(id);
+        if (blog == null) {
+            return Result.fail("笔记不存在!");
+        }
+        String blogVersion = resourceVersions.current(RedisConstants.CACHE_BLOG_KEY, id);
+        String authorVersion = resourceVersions.current(RedisConstants.CACHE_USER_KEY, blog.getUserId());
+        UserDTO user = UserHolder.getUser();
+        if (blogVersion != null && authorVersion != null
+                && request.checkNotModified(blogVersion + "-" + authorVersion + "-" + (user == null ? 0 : user.getId()))) {
+            return null;
+        }
+        return blogService.queryBlogById(blog);
     }
 
     @GetMapping("/of/user")
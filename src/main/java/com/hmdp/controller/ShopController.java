@@ -6,9 +6,15 @@ import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.ResourceVersions;
 import com.hmdp.utils.SystemConstants;
 import jakarta.annotation.Resource;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 
 /**
@@ -24,13 +30,23 @@ public class ShopController {
     @Resource
     public IShopService shopService;
 
+    @Resource
+    private ResourceVersions resourceVersions;
+
     /**
      * 根据id查询商铺信息
      * @param id 商铺id
      * @return 商铺详情数据
      */
     @GetMapping("/{id}")
-    public Result queryShopById(@PathVariable("id") Long id) {
+    public Result queryShopById(@PathVariable("id") Long id, WebRequest request, HttpServletResponse response) {
+        //店铺是公开数据 浏览器和代理可以缓存 但每次使用前都要用ETag验证
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().cachePublic().getHeaderValue());
+        //ETag使用店铺的版本号 在查询缓存和数据库之前判断 客户端缓存有效时只读取一次版本号就返回304
+        String version = resourceVersions.current(RedisConstants.CACHE_SHOP_KEY, id);
+        if (version != null && request.checkNotModified(version)) {
+            return null;
+        }
         return shopService.queryById(id);
     }
 
@@ -41,10 +57,8 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        // 写入数据库 同时加入布隆过滤器
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -5,6 +5,9 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 import com.hmdp.service.IVoucherService;
 import jakarta.annotation.Resource;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.web.bind.annotation.*;
 
 
@@ -27,7 +30,7 @@ public class VoucherController {
      */
     @PostMapping
     public Result addVoucher(@RequestBody Voucher voucher) {
-        voucherService.save(voucher);
+        voucherService.addVoucher(voucher);
         return Result.ok(voucher.getId());
     }
 
@@ -42,13 +45,26 @@ public class VoucherController {
         return Result.ok(voucher.getId());
     }
 
+    /**
+     * 补充秒杀券库存
+     * @param id 优惠券id
+     * @param count 补充的数量
+     * @return 补充后的Redis库存
+     */
+    @PutMapping("seckill/{id}/stock")
+    public Result replenishSeckillStock(@PathVariable("id") Long id, @RequestParam("count") Integer count) {
+        return voucherService.replenishSeckillStock(id, count);
+    }
+
     /**
      * 查询店铺的优惠券列表
      * @param shopId 店铺id
      * @return 优惠券列表
      */
     @GetMapping("/list/{shopId}")
-    public Result queryVoucherOfShop(@PathVariable("shopId") Long shopId) {
-       return voucherService.queryVoucherOfShop(shopId);
+    public Result queryVoucherOfShop(@PathVariable("shopId") Long shopId, HttpServletResponse response) {
+        //列表中的库存实时变化 每次使用前都要验证 ETag由ShallowEtagHeaderFilter根据响应内容计算
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().cachePublic().getHeaderValue());
+        return voucherService.queryVoucherOfShop(shopId);
     }
 }
@@ -0,0 +1,24 @@
+package com.hmdp.dto;
+
+import com.hmdp.utils.RawJson;
+import lombok.Getter;
+
+/**
+ * ErenMikasa
+ * Date 2024/10/22
+ */
+//data为已经序列化好的JSON的成功结果 由RawJsonHttpMessageConverter直接把字节写入响应 不经过Jackson
+@Getter
+public class RawJsonResult extends Result {
+
+    private final RawJson json;
+
+    private RawJsonResult(RawJson json) {
+        super(true, null, null, null);
+        this.json = json;
+    }
+
+    public static RawJsonResult ok(RawJson json) {
+        return new RawJsonResult(json);
+    }
+}
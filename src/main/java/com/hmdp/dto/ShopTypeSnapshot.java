@@ -0,0 +1,9 @@
+package com.hmdp.dto;
+
+/**
+ * ErenMikasa
+ * Date 2024/10/22
+ */
+//店铺类型列表的不可变快照 body为序列化好的响应 etag在生成快照时计算一次 请求直接使用
+public record ShopTypeSnapshot(long version, byte[] body, String etag) {
+}
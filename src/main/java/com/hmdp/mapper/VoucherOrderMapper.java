@@ -3,6 +3,9 @@ package com.hmdp.mapper;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -12,4 +15,9 @@ import org.apache.ibatis.annotations.Mapper;
 @Mapper
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    //一条INSERT语句写入多个订单
+    int insertBatch(@Param("orders") List<VoucherOrder> orders);
+
+    //恰好由(user_id, voucher_id)两列组成的唯一索引个数 一人一单依赖该索引
+    int countUserVoucherUniqueIndex();
 }
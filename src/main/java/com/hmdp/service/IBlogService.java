@@ -13,6 +13,10 @@ public interface IBlogService extends IService<Blog> {
 
     Result queryBlogById(Long id);
 
+    Result queryBlogById(Blog blog);
+
+    Blog queryBlog(Long id);
+
     Result queryHotBlog(Integer current);
 
     Result likeBlog(Long id);
@@ -16,5 +16,6 @@ public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id);
     Result update(Shop shop);
+    Result saveShop(Shop shop);
 
 }
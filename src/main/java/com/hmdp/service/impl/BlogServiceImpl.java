@@ -7,16 +7,19 @@ import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.entity.Follow;
-import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.HmdpCached;
+import com.hmdp.utils.CacheInvalidator;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.ResourceVersions;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import jakarta.annotation.Resource;
+import org.springframework.aop.framework.AopContext;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
@@ -44,14 +47,28 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     private IFollowService followService;
 
+    @Resource
+    private CacheInvalidator cacheInvalidator;//删除博客缓存
+
+    @Resource
+    private ResourceVersions resourceVersions;//博客版本号 用作ETag
+
     //根据博客id查询博客
     @Override
     public Result queryBlogById(Long id) {
-        //1.查询blog
-        Blog blog = getById(id);
-        if (blog == null) {
+        //1.查询blog 通过代理对象调用才会经过缓存切面
+        Blog cached = ((IBlogService) AopContext.currentProxy()).queryBlog(id);
+        if (cached == null) {
             return Result.fail("笔记不存在!");
         }
+        return queryBlogById(cached);
+    }
+
+    //根据已查询到的博客内容填充作者和点赞信息 供已经读取过博客内容的调用方使用 避免再次查询缓存
+    @Override
+    public Result queryBlogById(Blog cached) {
+        //缓存中的对象可能被本地缓存共享 复制一份再填充作者和点赞信息
+        Blog blog = BeanUtil.copyProperties(cached, Blog.class);
         //2.查询得到发布笔记的用户姓名
         queryBlogUser(blog);
         //3.查询博客是否被点赞
@@ -59,6 +76,13 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         return Result.ok(blog);
     }
 
+    //根据id查询博客内容 使用互斥锁方式缓存 热门博客被大量访问时只有一个请求查询数据库
+    @Override
+    @HmdpCached(prefix = RedisConstants.CACHE_BLOG_KEY, strategy = HmdpCached.Strategy.MUTEX,
+            ttl = RedisConstants.CACHE_BLOG_TTL)
+    public Blog queryBlog(Long id) {
+        return getById(id);
+    }
 
     //查询热门博客
     @Override
@@ -115,6 +139,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 stringRedisTemplate.opsForZSet().remove(key, userId.toString());
             }
         }
+        //3.点赞数量和点赞状态变化 先删除博客缓存再更换版本号 拿到新ETag的请求不会读到旧缓存
+        cacheInvalidator.evictAfterCommit(RedisConstants.CACHE_BLOG_KEY + id);
+        resourceVersions.bumpAfterCommit(RedisConstants.CACHE_BLOG_KEY, id);
         return Result.ok();
     }
 
@@ -215,7 +242,10 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     //根据博客查询用户信息 封装到blog中
     private void queryBlogUser(Blog blog) {
         Long userId = blog.getUserId();
-        User user = userService.getById(userId);
+        UserDTO user = userService.queryUserDTO(userId);
+        if (user == null) {
+            return;
+        }
         blog.setName(user.getNickName());
         blog.setIcon(user.getIcon());
     }
@@ -4,15 +4,23 @@ import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.RawJsonResult;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.RawJson;
+import com.hmdp.utils.RedisBloomFilter;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisData;
+import com.hmdp.utils.ResourceVersions;
+import jakarta.annotation.PostConstruct;
 import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -27,6 +35,7 @@ import java.util.concurrent.TimeUnit;
  * 服务实现类
  * </p>
  */
+@Slf4j
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
@@ -36,9 +45,46 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;//封装解决缓存穿透 缓存击穿的工具类
 
-    //更新店铺信息 缓存更新策略：先更新数据库，再删除缓存（主动更新为主，过期淘汰兜底）
+    @Resource
+    private CacheInvalidator cacheInvalidator;//事务提交后重写缓存
+
+    @Resource
+    private ResourceVersions resourceVersions;//店铺版本号 用作ETag
+
+    @Resource
+    private RedisBloomFilter bloomFilter;//布隆过滤器 拦截不存在的店铺id
+
+    //店铺详情为最热的读请求 开启进程内一级缓存 并初始化店铺id的布隆过滤器
+    @PostConstruct
+    private void init() {
+        cacheClient.enableLocalCache(RedisConstants.CACHE_SHOP_KEY, RedisConstants.CACHE_SHOP_LOCAL_SIZE,
+                RedisConstants.CACHE_SHOP_LOCAL_TTL, TimeUnit.SECONDS);
+        try {
+            bloomFilter.init(RedisConstants.CACHE_SHOP_KEY, () -> listObjs(new QueryWrapper<Shop>().select("id")));
+        } catch (Exception e) {
+            //初始化失败时过滤器一律放行 不影响正常查询
+            log.error("店铺布隆过滤器初始化失败", e);
+        }
+    }
+
+    //新增店铺 同时将店铺id加入布隆过滤器并写入缓存
     @Override
-    @Transactional//加入事务 确保更新和删除的原子性
+    public Result saveShop(Shop shop) {
+        //1.写入数据库
+        save(shop);
+        //2.加入布隆过滤器 否则新店铺会被当作不存在的id拦截
+        bloomFilter.add(RedisConstants.CACHE_SHOP_KEY, shop.getId());
+        //3.写入逻辑过期缓存 逻辑过期的查询未命中时不查询数据库 不写入会一直返回店铺不存在
+        cacheInvalidator.refreshAfterCommit(RedisConstants.CACHE_SHOP_KEY, shop.getId(), this::getById,
+                RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        //4.返回店铺id
+        return Result.ok(shop.getId());
+    }
+
+    //更新店铺信息 缓存更新策略：先更新数据库，再用新数据重写缓存
+    //店铺使用逻辑过期 缓存被删除后查询只会返回店铺不存在 直到下次预热 因此不能删除缓存
+    @Override
+    @Transactional//加入事务 缓存在事务提交后重写 防止提交前读到旧数据写回缓存
     public Result update(Shop shop) {
         //1.获得店铺的ID
         Long id = shop.getId();
@@ -47,8 +93,11 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         }
         //2.根据店铺id更新店铺信息
         updateById(shop);
-        //3.删除Redis缓存
-        stringRedisTemplate.delete(RedisConstants.CACHE_SHOP_KEY + id);
+        //3.事务提交后从数据库读取新数据重写Redis缓存(延迟后再重写一次) 同时通知所有实例删除本地缓存
+        cacheInvalidator.refreshAfterCommit(RedisConstants.CACHE_SHOP_KEY, id, this::getById,
+                RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        //4.重写缓存之后更换版本号 客户端的ETag失效
+        resourceVersions.bumpAfterCommit(RedisConstants.CACHE_SHOP_KEY, id);
         return Result.ok();
     }
 
@@ -64,14 +113,24 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 //        Shop shop = cacheClient.queryWithPassThrough( RedisConstants.CACHE_SHOP_KEY, id, Shop.class,
 //                this::getById, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
 
-        Shop shop = cacheClient.queryWithLogicalExpire(
+//        Shop shop = cacheClient.queryWithBloomFilter( RedisConstants.CACHE_SHOP_KEY, id, Shop.class,
+//                this::getById, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+
+        //布隆过滤器判断店铺一定不存在 直接返回 不访问Redis和数据库
+        if (!bloomFilter.mightContain(RedisConstants.CACHE_SHOP_KEY, id)) {
+            return Result.fail("店铺不存在!");
+        }
+
+        //逻辑过期+概率提前刷新 热点店铺的重建在过期前分散进行
+        //直接取出缓存中的JSON写入响应 不反序列化为Shop
+        RawJson shop = cacheClient.queryRawWithEarlyRefresh(
                 RedisConstants.CACHE_SHOP_KEY, id, Shop.class,
                 this::getById, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
 
         if (shop == null) {
             return Result.fail("店铺不存在!");
         }
-        return Result.ok(shop);
+        return RawJsonResult.ok(shop);
     }
 
 
@@ -1,52 +1,159 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheExpiryPolicy;
+import com.hmdp.utils.RawJson;
 import com.hmdp.utils.RedisConstants;
 import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
  * 服务实现类
  * </p>
  */
+//店铺类型几乎不变 在JVM内保存不可变的快照(包括序列化好的响应和ETag) 请求直接返回快照 不再每次读取Redis并解析
+//快照带有版本号：通过update修改店铺类型后调用refresh递增版本号并发布通知 各实例收到通知后重新加载
+//直接修改数据库后 需要调用refresh(或等待Redis列表过期后再次修改)才能生效
+//通知可能丢失 因此每隔一段时间还会检查一次Redis中的版本号
+@Slf4j
 @Service
-public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
+public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService, MessageListener {
+
+    //原子地初始化Redis列表 防止并发未命中时重复追加
+    public static final DefaultRedisScript<Long> LIST_INIT_SCRIPT;
+    static {
+        LIST_INIT_SCRIPT = new DefaultRedisScript<>();
+        LIST_INIT_SCRIPT.setLocation(new ClassPathResource("listInit.lua"));//resources资源夹下脚本文件
+        LIST_INIT_SCRIPT.setResultType(Long.class);
+    }
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
-    //使用Redis缓存实现展示店铺类型列表
+    @Resource
+    private CacheExpiryPolicy expiryPolicy;
+
+    @Resource
+    private ObjectMapper objectMapper;//与接口返回使用同一个ObjectMapper 保证预先序列化的响应格式一致
+
+    private volatile ShopTypeSnapshot snapshot;//不可变快照 整体替换
+
+    private volatile long nextCheckAt;//下一次检查版本号的时间 0表示需要立即检查
+
+    //使用本地快照实现展示店铺类型列表 返回序列化好的响应
     @Override
-    public Result queryList() {
+    public ShopTypeSnapshot queryList() {
+        ShopTypeSnapshot current = snapshot;
+        if (current != null && System.currentTimeMillis() < nextCheckAt) {
+            return current;
+        }
+        //同一时间只有一个线程检查版本号和重新加载
+        synchronized (this) {
+            current = snapshot;
+            long now = System.currentTimeMillis();
+            if (current != null && now < nextCheckAt) {
+                return current;
+            }
+            try {
+                long version = currentVersion();
+                if (current == null || current.version() != version) {
+                    current = load(version);
+                    snapshot = current;
+                }
+            } catch (RuntimeException e) {
+                //Redis或数据库不可用时继续使用旧快照
+                if (current == null) {
+                    throw e;
+                }
+                log.warn("刷新店铺类型快照失败，继续使用版本{}", current.version(), e);
+            }
+            nextCheckAt = now + TimeUnit.SECONDS.toMillis(RedisConstants.CACHE_SHOPTYPE_CHECK_INTERVAL);
+            return current;
+        }
+    }
+
+    //修改店铺类型 写入数据库后刷新所有实例的快照
+    @Override
+    public Result update(ShopType shopType) {
+        if (shopType.getId() == null) {
+            return Result.fail("店铺类型ID为空!");
+        }
+        if (!updateById(shopType)) {
+            return Result.fail("店铺类型不存在!");
+        }
+        refresh();
+        return Result.ok();
+    }
+
+    //店铺类型修改后调用 删除Redis列表并递增版本号 通知所有实例重新加载
+    @Override
+    public void refresh() {
+        stringRedisTemplate.delete(RedisConstants.CACHE_SHOPTYPE_KEY);
+        Long version = stringRedisTemplate.opsForValue().increment(RedisConstants.CACHE_SHOPTYPE_VERSION_KEY);
+        nextCheckAt = 0;
+        stringRedisTemplate.convertAndSend(RedisConstants.CACHE_SHOPTYPE_REFRESH_CHANNEL, String.valueOf(version));
+    }
+
+    //收到刷新通知 下一次请求时检查版本号并重新加载
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        nextCheckAt = 0;
+    }
+
+    private long currentVersion() {
+        String version = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOPTYPE_VERSION_KEY);
+        return version == null ? 0 : Long.parseLong(version);
+    }
+
+    //加载指定版本的快照
+    private ShopTypeSnapshot load(long version) {
         //1. 从Redis中查询店铺类型列表 使用Redis 自带的集合类型List
         List<String> shopTypeList = stringRedisTemplate.opsForList().range(RedisConstants.CACHE_SHOPTYPE_KEY, 0, -1);
-        //2.判断集合是否为空
-        if (shopTypeList != null && shopTypeList.size() > 0) {
-            //3.不为空,转为List<ShopType>集合对象直接返回
-            List<ShopType> shopTypes = shopTypeList.stream()
+        List<ShopType> shopTypes;
+        if (shopTypeList != null && !shopTypeList.isEmpty()) {
+            //2.不为空,转为List<ShopType>集合对象
+            shopTypes = shopTypeList.stream()
                     .map(item -> JSONUtil.toBean(item, ShopType.class))
                     .toList();
-            return Result.ok(shopTypes);
+        } else {
+            //3.否则从数据库中查询,并按sort字段升序排序
+            shopTypes = query().orderByAsc("sort").list();
+            //4.不为空，将数据转化为JSON原子地存入Redis中 过期时间加上随机偏移
+            if (!shopTypes.isEmpty()) {
+                List<String> args = new ArrayList<>(shopTypes.size() + 1);
+                args.add(String.valueOf(expiryPolicy.ttlMillis(RedisConstants.CACHE_SHOPTYPE_KEY,
+                        RedisConstants.CACHE_SHOPTYPE_TTL, TimeUnit.MINUTES)));
+                shopTypes.forEach(shopType -> args.add(JSONUtil.toJsonStr(shopType)));
+                stringRedisTemplate.execute(LIST_INIT_SCRIPT,
+                        Collections.singletonList(RedisConstants.CACHE_SHOPTYPE_KEY), args.toArray());
+            }
         }
-        //4.否则从数据库中查询,并按sort字段升序排序
-        List<ShopType> shopTypes = query().orderByAsc("sort").list();
-        //5.若为空，直接返回
-        if (shopTypes == null) {
-            return Result.fail("店铺类型不存在!");
+        try {
+            byte[] body = objectMapper.writeValueAsBytes(Result.ok(shopTypes));
+            //ETag随快照一起生成 请求时不再计算哈希
+            return new ShopTypeSnapshot(version, body, RawJson.of(body).etag());
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
         }
-        //6.不为空，将数据转化为JSON存入Redis中
-        List<String> jsonList = shopTypes.stream().map(JSONUtil::toJsonStr).toList();
-        stringRedisTemplate.opsForList().rightPushAll(RedisConstants.CACHE_SHOPTYPE_KEY, jsonList);
-        return Result.ok(shopTypes);
     }
 }
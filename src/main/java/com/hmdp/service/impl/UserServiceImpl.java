@@ -13,8 +13,10 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.HmdpCached;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RegexUtils;
+import com.hmdp.utils.ResourceVersions;
 import com.hmdp.utils.SystemConstants;
 import jakarta.annotation.Resource;
 import jakarta.servlet.http.HttpSession;
@@ -38,6 +40,9 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Resource
     private StringRedisTemplate stringRedisTemplate;//注入Redis操作模板
 
+    @Resource
+    private ResourceVersions resourceVersions;//用户版本号 博客详情的ETag包含作者的版本号
+
     //使用Redis保存验证码代替session存储验证码
     @Override
     public Result sendCode(String phone, HttpSession session) {
@@ -98,6 +103,16 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         return Result.ok(token);
     }
 
+    //根据id查询用户公开信息 只缓存UserDTO 不缓存手机号、密码等敏感字段
+    @Override
+    @HmdpCached(prefix = RedisConstants.CACHE_USER_KEY, ttl = RedisConstants.CACHE_USER_TTL)
+    public UserDTO queryUserDTO(Long id) {
+        //缓存未命中时才会执行 从数据库读取的昵称、头像可能已经变化 更换用户版本号 使包含作者信息的博客ETag失效
+        resourceVersions.bumpAfterCommit(RedisConstants.CACHE_USER_KEY, id);
+        User user = getById(id);
+        return user == null ? null : BeanUtil.copyProperties(user, UserDTO.class);
+    }
+
     private User createUserWithPhone(String phone) {
         User user = new User();
         //设置电话和昵称
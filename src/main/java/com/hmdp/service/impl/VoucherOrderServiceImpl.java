@@ -1,35 +1,53 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisWorker;
+import com.hmdp.utils.SeckillSoldOutCache;
+import com.hmdp.utils.SeckillStockSegments;
+import com.hmdp.utils.StreamPartitionAssigner;
+import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.RedisStreamCommands;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <p>
@@ -50,7 +68,10 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
-    private RedissonClient redissonClient;
+    private SeckillSoldOutCache soldOutCache;//本地售罄标记
+
+    @Resource
+    private SeckillStockSegments stockSegments;//库存分段
 
     //静态读取lua脚本(避免每次都要重新读取) 实现优惠券秒杀优化
     public static final DefaultRedisScript<Long> SECKILL_SCRIPT;
@@ -61,80 +82,220 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         SECKILL_SCRIPT.setResultType(Long.class);
     }
 
+    //在用户所属的库存段记录已下单用户
+    public static final DefaultRedisScript<Long> SECKILL_MARK_SCRIPT;
+
+    static {
+        SECKILL_MARK_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_MARK_SCRIPT.setLocation(new ClassPathResource("seckillMark.lua"));//resources资源夹下脚本文件
+        SECKILL_MARK_SCRIPT.setResultType(Long.class);
+    }
+
     //创建阻塞队列 存放要写入数据库的订单  一旦类加载,就开启异步线程处理阻塞队列里面的订单任务
 //    private final BlockingQueue<VoucherOrder> orderTasks = new ArrayBlockingQueue<>(1024 * 1024);//阻塞队列大小
 
-    //消息队列的名称
-    private final String queueName = "stream.orders";
+    //消费者组的名称 所有实例共用一个组
+    private final String groupName = "g1";
+
+    @Value("${hmdp.seckill.partitions:8}")
+    private int partitions;//订单消息分区数 订单进入扣减库存段所在的分区(通常就是用户id取模对应的分区)
+
+    @Value("${hmdp.seckill.consumer-threads:2}")
+    private int consumerThreads;//本实例的消费线程数
+
+    @Value("${hmdp.seckill.consumer-name:}")
+    private String consumerName;//本实例的消费者名称前缀 为空时使用主机名和进程号
+
+    //分区分配 每个分区同一时间只由一个消费者处理
+    private StreamPartitionAssigner partitionAssigner;
+
+    //开启异步线程处理消息队列 每个线程是消费者组中一个独立的消费者
+    private ExecutorService seckillOrderExecutor;
 
-    //创建一个线程池 开启异步线程处理消息队列
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    private volatile boolean running = true;
 
-    //为使类一旦加载完成就处理消息队列 使用一个注解
+    //一人一单最终由(user_id, voucher_id)唯一索引保证 同一用户的订单可能由不同分区的消费者同时写入
+    //项目没有数据库迁移工具 索引需要手动创建(db/voucher_order_unique.sql) 缺少索引时重复订单会被静默写入 因此直接启动失败
     @PostConstruct
-    private void init() {//加载类后开始执行线程 处理阻塞队列
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+    private void checkUniqueIndex() {
+        if (getBaseMapper().countUserVoucherUniqueIndex() == 0) {
+            throw new IllegalStateException("tb_voucher_order缺少(user_id, voucher_id)唯一索引 请先执行db/voucher_order_unique.sql");
+        }
+    }
+
+    //应用启动完成后再开始处理消息队列 此时事务代理对象已经可用
+    @EventListener(ApplicationReadyEvent.class)
+    public void init() {
+        //所有分区 以及分区之前的单个stream(其中可能还有未处理的订单)
+        List<String> streamKeys = new ArrayList<>(partitions + 1);
+        for (int i = 0; i < partitions; i++) {
+            streamKeys.add(RedisConstants.SECKILL_ORDER_STREAM_KEY + i);
+        }
+        streamKeys.add(RedisConstants.SECKILL_ORDER_LEGACY_STREAM_KEY);
+        streamKeys.forEach(this::createGroupIfAbsent);
+        partitionAssigner = new StreamPartitionAssigner(stringRedisTemplate, streamKeys,
+                RedisConstants.SECKILL_ORDER_CONSUMERS_KEY, RedisConstants.SECKILL_ORDER_LEASE_KEY,
+                RedisConstants.SECKILL_ORDER_LEASE_TTL, TimeUnit.SECONDS);
+
+        String instance = StrUtil.isNotBlank(consumerName) ? consumerName : instanceName();
+        AtomicInteger threadId = new AtomicInteger();
+        seckillOrderExecutor = Executors.newFixedThreadPool(consumerThreads,
+                r -> new Thread(r, "seckill-order-" + threadId.incrementAndGet()));
+        for (int i = 1; i <= consumerThreads; i++) {
+            //消费者名称在所有实例、所有线程之间唯一
+            seckillOrderExecutor.submit(new VoucherOrderHandler(instance + "-" + i));
+        }
+        log.info("启动{}个订单消费者:{}-[1..{}] 分区数:{}", consumerThreads, instance, consumerThreads, partitions);
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        running = false;
+        if (seckillOrderExecutor != null) {
+            seckillOrderExecutor.shutdown();
+        }
+    }
+
+    //创建消费者组 XGROUP CREATE stream.orders:i g1 0 MKSTREAM 已存在时忽略 多个实例同时启动也没有问题
+    private void createGroupIfAbsent(String streamKey) {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands().xGroupCreate(
+                    streamKey.getBytes(StandardCharsets.UTF_8), groupName, ReadOffset.from("0"), true));
+        } catch (RedisSystemException e) {
+            String message = e.getMostSpecificCause().getMessage();
+            if (message == null || !message.contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    //默认的实例名称 容器中为Pod名称(HOSTNAME) 否则为 进程号@主机名
+    private static String instanceName() {
+        String hostname = System.getenv("HOSTNAME");
+        String pid = String.valueOf(ProcessHandle.current().pid());
+        return StrUtil.isNotBlank(hostname) ? hostname + "@" + pid : ManagementFactory.getRuntimeMXBean().getName();
     }
 
     //定义一个内部类 即标识异步线程 处理阻塞队列 完成订单写入数据库
     private class VoucherOrderHandler implements Runnable {
 
+        private final Consumer consumer;
+
+        private List<String> owned = List.of();//当前持有租约的分区
+
+        private long nextRebalanceAt;//下一次心跳并重新分配分区的时间
+
+        private boolean drainPending;//新获得了分区 需要先处理接管过来的pending-list
+
+        VoucherOrderHandler(String name) {
+            this.consumer = Consumer.from(groupName, name);
+        }
+
         @Override
         public void run() {
-            while (true) {
+            while (running) {
                 try {
+                    //0.定期心跳并重新分配分区 新获得的分区先接管原持有者未确认的消息
+                    rebalance();
+                    if (owned.isEmpty()) {
+                        //消费者多于分区时 没有分到分区的消费者空闲等待
+                        Thread.sleep(TimeUnit.SECONDS.toMillis(SystemConstants.SECKILL_ORDER_REBALANCE_INTERVAL));
+                        continue;
+                    }
+                    if (drainPending) {
+                        drainPending = false;
+                        handlePendingList();
+                        continue;
+                    }
                     /*
                     //1.获取阻塞队列中的订单
                     VoucherOrder voucherOrder = orderTasks.take();
                     //2.开始处理 存入数据库
                     handleVoucherOrder(voucherOrder);//封装成一个方法
                      */
-                    //1.获取消息队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS stream.orders >
-                    List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),//消费者组的名称和key
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),//消息队列为空时阻塞等待2秒
-                            StreamOffset.create(queueName, ReadOffset.lastConsumed()));//读取第一条未被处理的消息
+                    //1.批量获取所持有分区中的订单信息 XREADGROUP GROUP g1 c COUNT N BLOCK t STREAMS stream.orders:i >
+                    //都没有新消息时阻塞等待 总计约2秒
+                    List<MapRecord<String, Object, Object>> records = read(ReadOffset.lastConsumed(), true);
                     //2.判断消息是否获取成功
                     if (records == null || records.isEmpty()) {
                         continue;//进入下一轮循环
                     }
-                    //3.获得消息后，将其转化为订单对象
-                    MapRecord<String, Object, Object> record = records.get(0);//获取第一个数据
-                    Map<Object, Object> values = record.getValue();//获得值即订单信息
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-                    //4.处理订单 即下单存入数据库
-                    handleVoucherOrder(voucherOrder);
-                    //5.手动ACK确认消息，SACK stream.orders g1 id
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
+                    //3.整批订单在一个事务中写入数据库 成功后ACK
+                    handleVoucherOrders(records);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
                 } catch (Exception e) {
                     log.error("订单处理异常", e);
                     //封装成一个方法处理异常订单 即pending-list中的消息
                     handlePendingList();
                 }
             }
+            partitionAssigner.leave(consumer.getName(), owned);
+        }
+
+        //逐个分区读取订单消息 各分区stream在集群中位于不同的槽位(可能在不同节点) 不能合并为一次XREADGROUP
+        private List<MapRecord<String, Object, Object>> read(ReadOffset readOffset, boolean block) {
+            List<MapRecord<String, Object, Object>> records = new ArrayList<>();
+            for (String streamKey : owned) {
+                List<MapRecord<String, Object, Object>> part = stringRedisTemplate.opsForStream().read(consumer,
+                        StreamReadOptions.empty().count(SystemConstants.SECKILL_ORDER_BATCH_SIZE),
+                        StreamOffset.create(streamKey, readOffset));
+                if (part != null) {
+                    records.addAll(part);
+                }
+            }
+            if (!records.isEmpty() || !block) {
+                return records;
+            }
+            //所有分区都没有新消息 依次阻塞等待 任意一个分区有消息就返回
+            long blockMillis = Math.max(100, TimeUnit.SECONDS.toMillis(2) / owned.size());
+            for (String streamKey : owned) {
+                List<MapRecord<String, Object, Object>> part = stringRedisTemplate.opsForStream().read(consumer,
+                        StreamReadOptions.empty().count(SystemConstants.SECKILL_ORDER_BATCH_SIZE)
+                                .block(Duration.ofMillis(blockMillis)),
+                        StreamOffset.create(streamKey, readOffset));
+                if (part != null && !part.isEmpty()) {
+                    return part;
+                }
+            }
+            return records;
         }
 
         //处理了消息队列中的异常订单
         private void handlePendingList() {
-            while (true) {
+            while (running && !owned.isEmpty()) {
                 try {
-                    //1.获取pending-list中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS stream.orders 0
-                    List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),//消费者组的名称和key
-                            StreamReadOptions.empty().count(1),//这里为空时不再阻塞等待
-                            StreamOffset.create(queueName, ReadOffset.from("0")));//读取第一条未被处理的消息
+                    //0.处理时间可能较长 期间照常心跳续约 新获得的分区也一并处理
+                    rebalance();
+                    //1.批量获取pending-list中的订单信息 XREADGROUP GROUP g1 c COUNT N STREAMS stream.orders:i 0
+                    List<MapRecord<String, Object, Object>> records = read(ReadOffset.from("0"), false);//这里为空时不再阻塞等待
                     //2.判断是否还有未处理的消息
                     if (records == null || records.isEmpty()) {
                         break;//若没有，直接退出
                     }
-                    //3.获取消息后，将其转化为订单对象
-                    MapRecord<String, Object, Object> record = records.get(0);//获取第一个数据
-                    Map<Object, Object> values = record.getValue();//获得值即订单信息
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-                    //4.处理订单 即下单存入数据库
-                    handleVoucherOrder(voucherOrder);
-                    //5.手动ACK确认消息，SACK stream.orders g1 id
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
+                    //3.先整批处理 失败时逐条处理 避免一条异常消息拖住整批订单
+                    try {
+                        handleVoucherOrders(records);
+                    } catch (Exception e) {
+                        log.error("批量处理pending-list订单异常，改为逐条处理", e);
+                        boolean failed = false;
+                        for (MapRecord<String, Object, Object> record : records) {
+                            try {
+                                handleVoucherOrders(List.of(record));
+                            } catch (Exception ex) {
+                                failed = true;
+                                handleFailedOrder(record, ex);
+                            }
+                        }
+                        if (failed) {
+                            //仍有失败的订单留在pending-list中 等待一段时间再重试 避免空转
+                            Thread.sleep(SystemConstants.SECKILL_ORDER_RETRY_INTERVAL);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
                 } catch (Exception e) {
                     log.error("处理pending-list订单异常", e);
                     // 这里不用调自己，直接就进入下一次循环，再从pendingList中取，这里只需要休眠一下，防止获取消息太频繁
@@ -147,9 +308,96 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                 }
             }
         }
+
+        //单条订单处理失败 投递次数达到上限后转入死信stream并ACK 不再阻塞后面的订单
+        private void handleFailedOrder(MapRecord<String, Object, Object> record, Exception e) {
+            if (e instanceof DuplicateKeyException) {
+                //违反(user_id, voucher_id)唯一索引 该用户已经有订单(例如在其他分区同时写入) 事务已回滚 直接ACK
+                stringRedisTemplate.opsForStream().acknowledge(record.getStream(), groupName, record.getId());
+                log.info("一人一单,订单消息{}重复 已丢弃", record.getId());
+                return;
+            }
+            PendingMessages pending = stringRedisTemplate.opsForStream().pending(record.getStream(), consumer,
+                    Range.closed(record.getId().getValue(), record.getId().getValue()), 1L);
+            long deliveries = pending.isEmpty() ? 0 : pending.get(0).getTotalDeliveryCount();
+            if (deliveries < SystemConstants.SECKILL_ORDER_MAX_DELIVERIES) {
+                log.warn("订单消息{}第{}次处理失败，稍后重试", record.getId(), deliveries, e);
+                return;
+            }
+            //保留原分区和消息id 便于排查后重新投递
+            Map<String, String> values = new LinkedHashMap<>();
+            record.getValue().forEach((field, value) -> values.put(String.valueOf(field), String.valueOf(value)));
+            values.put("stream", record.getStream());
+            values.put("recordId", record.getId().getValue());
+            stringRedisTemplate.opsForStream().add(RedisConstants.SECKILL_ORDER_DEAD_LETTER_KEY, values);
+            stringRedisTemplate.opsForStream().acknowledge(record.getStream(), groupName, record.getId());
+            log.error("订单消息{}处理{}次仍失败，已转入死信stream", record.getId(), deliveries, e);
+        }
+
+        //将消息转化为订单对象 在一个事务中写入数据库 提交后按分区各ACK一次
+        private void handleVoucherOrders(List<MapRecord<String, Object, Object>> records) {
+            List<VoucherOrder> voucherOrders = new ArrayList<>(records.size());
+            Map<String, List<RecordId>> idsByStream = new LinkedHashMap<>();
+            for (MapRecord<String, Object, Object> record : records) {
+                Map<Object, Object> values = record.getValue();//获得值即订单信息
+                voucherOrders.add(BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true));
+                idsByStream.computeIfAbsent(record.getStream(), key -> new ArrayList<>()).add(record.getId());
+            }
+            //因为这里开启的是异步线程处理任务 所以事务对象需要提前获取好
+            proxy.createVoucherOrders(voucherOrders);
+            //手动ACK确认消息，XACK stream.orders:i g1 id1 id2 ...
+            idsByStream.forEach((streamKey, ids) -> stringRedisTemplate.opsForStream()
+                    .acknowledge(streamKey, groupName, ids.toArray(RecordId[]::new)));
+        }
+
+        //心跳并重新分配分区
+        private void rebalance() {
+            long now = System.currentTimeMillis();
+            if (now < nextRebalanceAt) {
+                return;
+            }
+            nextRebalanceAt = now + TimeUnit.SECONDS.toMillis(SystemConstants.SECKILL_ORDER_REBALANCE_INTERVAL);
+            List<String> acquired = new ArrayList<>();
+            owned = partitionAssigner.rebalance(consumer.getName(), owned, acquired);
+            if (acquired.isEmpty()) {
+                return;
+            }
+            log.info("消费者{}获得分区:{}", consumer.getName(), acquired);
+            //分区只由自己处理 原持有者(已下线或分区被重新分配)未确认的消息全部接管 之后由主循环处理pending-list
+            for (String streamKey : acquired) {
+                claimPending(streamKey);
+            }
+            drainPending = true;
+        }
+
+        //把分区中其他消费者未确认的消息XCLAIM到自己名下 从上一页最后的消息id之后继续分页查询 直到查完整个pending-list
+        private void claimPending(String streamKey) {
+            Range<String> range = Range.unbounded();
+            while (true) {
+                PendingMessages pending = stringRedisTemplate.opsForStream().pending(
+                        streamKey, groupName, range, SystemConstants.SECKILL_ORDER_BATCH_SIZE);
+                if (pending.isEmpty()) {
+                    return;
+                }
+                RecordId[] others = pending.stream()
+                        .filter(message -> !message.getConsumerName().equals(consumer.getName()))
+                        .map(PendingMessage::getId)
+                        .toArray(RecordId[]::new);
+                range = Range.rightUnbounded(Range.Bound.exclusive(pending.get(pending.size() - 1).getIdAsString()));
+                if (others.length == 0) {
+                    continue;
+                }
+                //StreamOperations没有XCLAIM 通过连接执行 只转移所有权 消息内容之后从pending-list读取
+                stringRedisTemplate.execute((RedisCallback<List<RecordId>>) connection -> connection.streamCommands().xClaimJustId(
+                        streamKey.getBytes(StandardCharsets.UTF_8), groupName, consumer.getName(),
+                        RedisStreamCommands.XClaimOptions.minIdle(Duration.ZERO).ids(others)));
+                log.info("消费者{}接管分区{}中{}条未确认的订单消息", consumer.getName(), streamKey, others.length);
+            }
+        }
     }
 
 
+/*  改用批量处理 一人一单由Lua脚本保证 写入前按订单id和用户去重 不再逐个加锁
     //处理任务
     private void handleVoucherOrder(VoucherOrder voucherOrder) {
         //1.从订单中获取用户id
@@ -175,28 +423,62 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         }
     }
 
-    private IVoucherOrderService proxy;//事务的代理对象需要额外提前获取
+ */
+
+    //事务的代理对象 消费线程中无法通过AopContext获取 注入自身的延迟代理
+    @Lazy
+    @Resource
+    private IVoucherOrderService proxy;
 
     //实现优惠券秒杀 使用lua脚本实现下单资格判断 开启异步线程完成写入数据库 提高吞吐量
     @Override
     public Result seckillVoucher(Long voucherId) {
+        //0.本地已标记售罄 直接拒绝 不访问Redis
+        if (soldOutCache.isSoldOut(voucherId)) {
+            return Result.fail("库存不足~");
+        }
         //1.获取用户ID
         Long userId = UserHolder.getUser().getId();
         //2.生成订单id
         long orderId = redisWorker.nextId("order");
-        //3.执行lua脚本 判断是否有下单资格
-        Long result = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),//这里传入一个空集合 因为lua脚本只需要ARGV参数
-                voucherId.toString(),
-                userId.toString(),
-                String.valueOf(orderId)
-        );
+        //3.执行lua脚本 判断秒杀时间和下单资格 从用户所属的库存段开始 这一段库存不足时依次尝试下一段
+        int segments = stockSegments.segments();
+        int home = stockSegments.homeSegment(userId);
+        Long result = 1L;
+        int segment = home;
+        for (int i = 0; i < segments && Long.valueOf(1L).equals(result); i++) {
+            segment = (home + i) % segments;
+            result = stringRedisTemplate.execute(
+                    SECKILL_SCRIPT,
+                    List.of(stockSegments.stockKey(voucherId, segment),//库存段hash 包含库存和秒杀时间
+                            stockSegments.orderKey(voucherId, segment),//这一段的已下单用户key
+                            stockSegments.streamKey(segment)),//库存段所在的订单消息分区
+                    voucherId.toString(),
+                    userId.toString(),
+                    String.valueOf(orderId)
+            );
+        }
         //4.判断返回结果是否为0 即是否有下单资格
         if (result != null && !result.equals(0L)) {
             // 不为0 即没有下单资格
             log.info("没有下单资格");
-            return Result.fail(result.intValue() == 1 ? "库存不足~" : "请勿重复下单~");
+            if (result.intValue() == 1) {
+                //所有库存段都不足 标记售罄并通知所有实例
+                soldOutCache.markSoldOut(voucherId);
+            }
+            return Result.fail(switch (result.intValue()) {
+                case 1 -> "库存不足~";
+                case 3 -> "秒杀尚未开始,请耐心等待~";
+                case 4 -> "秒杀已结束,请下次再来~";
+                default -> "请勿重复下单~";
+            });
+        }
+        if (segment != home) {
+            //在其他段下单 同时记录到用户所属的段 该段补充库存后重复请求仍会被拒绝
+            //这一步与下单不是原子的 期间产生的重复订单由(user_id, voucher_id)唯一索引拒绝
+            stringRedisTemplate.execute(SECKILL_MARK_SCRIPT,
+                    List.of(stockSegments.stockKey(voucherId, home), stockSegments.orderKey(voucherId, home)),
+                    userId.toString());
         }
         log.info("有下单资格");
         /* 改用使用消息队列处理
@@ -208,9 +490,6 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         //6.将订单对象加入到阻塞队列 即新建线程 异步处理 写入数据库 性能提升关键
         orderTasks.add(voucherOrder);
          */
-        //7.获取事务代理对象
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
-
         //8.返回订单ID
         return Result.ok(orderId);
     }
@@ -244,6 +523,75 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         save(voucherOrder);
     }
 
+    //批量创建订单 整批在一个事务中完成：
+    //  1.跳过已经写入过的订单(消息重复投递)和已下过单的用户
+    //  2.每种优惠券只执行一次 stock = stock - k 库存不足时退回逐个扣减
+    //  3.一条INSERT语句写入所有订单
+    @Override
+    @Transactional
+    public void createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        //1.一次查询出这批订单涉及的已有订单 按订单id和(用户,优惠券)去重
+        Set<Long> userIds = new HashSet<>();
+        Set<Long> voucherIds = new HashSet<>();
+        Set<Long> orderIds = new HashSet<>();
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            userIds.add(voucherOrder.getUserId());
+            voucherIds.add(voucherOrder.getVoucherId());
+            orderIds.add(voucherOrder.getId());
+        }
+        Set<Long> existingIds = new HashSet<>();
+        Set<String> ordered = new HashSet<>();//已下单的 用户id:优惠券id
+        query().select("id", "user_id", "voucher_id")
+                .in("user_id", userIds).in("voucher_id", voucherIds).or().in("id", orderIds)
+                .list()
+                .forEach(order -> {
+                    existingIds.add(order.getId());
+                    ordered.add(order.getUserId() + ":" + order.getVoucherId());
+                });
+        //按优惠券分组 同一批次内重复的订单也只保留第一条
+        Map<Long, List<VoucherOrder>> byVoucher = new LinkedHashMap<>();
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            if (existingIds.contains(voucherOrder.getId())
+                    || !ordered.add(voucherOrder.getUserId() + ":" + voucherOrder.getVoucherId())) {
+                log.info("一人一单,请勿重复下单~");
+                continue;
+            }
+            byVoucher.computeIfAbsent(voucherOrder.getVoucherId(), id -> new ArrayList<>()).add(voucherOrder);
+        }
+        //2.扣减库存
+        List<VoucherOrder> accepted = new ArrayList<>(voucherOrders.size());
+        byVoucher.forEach((voucherId, orders) -> {
+            int k = orders.size();
+            // 库存充足,一次扣减k个库存 加乐观锁
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock=stock-" + k)
+                    .eq("voucher_id", voucherId)
+                    .ge("stock", k)
+                    .update();
+            if (success) {
+                accepted.addAll(orders);
+                return;
+            }
+            //剩余库存不足k个 逐个扣减直到库存为0
+            for (VoucherOrder order : orders) {
+                success = seckillVoucherService.update()
+                        .setSql("stock=stock-1")
+                        .eq("voucher_id", voucherId)
+                        .gt("stock", 0)
+                        .update();
+                if (!success) {
+                    log.info("库存不足,请下次再来~");
+                    break;
+                }
+                accepted.add(order);
+            }
+        });
+        //3.保存订单到数据库
+        if (!accepted.isEmpty()) {
+            getBaseMapper().insertBatch(accepted);
+        }
+    }
+
 /*
     @Transactional //有修改操作 添加事务
     public Result creatVoucherOrder(Long voucherId) {
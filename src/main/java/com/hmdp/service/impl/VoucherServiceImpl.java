@@ -1,5 +1,6 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
@@ -7,19 +8,39 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.HmdpCached;
+import com.hmdp.utils.HmdpEvict;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillSoldOutCache;
+import com.hmdp.utils.SeckillStockSegments;
 import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.aop.framework.AopContext;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * <p>
  *  服务实现类
  * </p>
  */
+@Slf4j
 @Service
 public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> implements IVoucherService {
 
@@ -29,16 +50,66 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SeckillSoldOutCache soldOutCache;
+
+    @Resource
+    private SeckillStockSegments stockSegments;
+
+    //店铺优惠券列表 优惠券信息走缓存 秒杀库存从Redis实时读取后合并 请求路径上不再查询数据库
     @Override
     public Result queryVoucherOfShop(Long shopId) {
-        // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
-        // 返回结果
+        //1.查询缓存的优惠券信息 通过代理对象调用才会经过缓存切面
+        Voucher[] cached = ((IVoucherService) AopContext.currentProxy()).queryVoucherMetaOfShop(shopId);
+        if (cached == null || cached.length == 0) {
+            return Result.ok(List.of());
+        }
+        //缓存中的对象可能被本地缓存共享 复制一份再填充库存
+        List<Voucher> vouchers = new ArrayList<>(cached.length);
+        List<Long> seckillIds = new ArrayList<>();
+        List<Voucher> seckillVouchers = new ArrayList<>();
+        for (Voucher v : cached) {
+            Voucher voucher = BeanUtil.copyProperties(v, Voucher.class);
+            vouchers.add(voucher);
+            //有秒杀信息的才是秒杀券 普通券的库存为null
+            if (voucher.getBeginTime() != null) {
+                seckillIds.add(voucher.getId());
+                seckillVouchers.add(voucher);
+            }
+        }
+        //2.一次管道读取所有秒杀券各段的实时库存 求和后覆盖 Redis中没有库存的保留数据库中的值
+        if (!seckillIds.isEmpty()) {
+            List<Object> stocks = readStocks(seckillIds);
+            int segments = stockSegments.segments();
+            for (int i = 0; i < seckillVouchers.size(); i++) {
+                Integer stock = sum(stocks.subList(i * segments, (i + 1) * segments));
+                if (stock != null) {
+                    seckillVouchers.get(i).setStock(stock);
+                }
+            }
+        }
         return Result.ok(vouchers);
     }
 
+    //查询店铺的优惠券信息(LEFT JOIN秒杀信息) 其中的库存只是写入缓存时的值 返回前需要用实时库存覆盖
+    //使用数组作为返回值 缓存反序列化时能得到确定的元素类型
+    @Override
+    @HmdpCached(prefix = RedisConstants.CACHE_SHOP_VOUCHER_KEY, strategy = HmdpCached.Strategy.MUTEX,
+            ttl = RedisConstants.CACHE_SHOP_VOUCHER_TTL)
+    public Voucher[] queryVoucherMetaOfShop(Long shopId) {
+        return getBaseMapper().queryVoucherOfShop(shopId).toArray(new Voucher[0]);
+    }
+
+    //新增普通券 删除店铺优惠券列表缓存
+    @Override
+    @HmdpEvict(prefix = RedisConstants.CACHE_SHOP_VOUCHER_KEY, key = "#p0.shopId")
+    public void addVoucher(Voucher voucher) {
+        save(voucher);
+    }
+
     @Override
     @Transactional
+    @HmdpEvict(prefix = RedisConstants.CACHE_SHOP_VOUCHER_KEY, key = "#p0.shopId")//新增优惠券后删除店铺优惠券列表缓存
     public void addSeckillVoucher(Voucher voucher) {
         // 保存优惠券
         save(voucher);
@@ -50,7 +121,139 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
 
-        //将秒杀库存信息存储到Redis中
-        stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        //事务提交后将秒杀库存和秒杀时间分段预加载到Redis中 下单时由脚本判断 不再查询数据库
+        afterCommit(() -> loadSegments(seckillVoucher, voucher.getStock()));
+    }
+
+    //补充秒杀库存 数据库增加后 在事务提交之后增加Redis库存(平均分到各段) 并清除所有实例的售罄标记
+    //事务回滚时Redis不会多出数据库中不存在的库存 否则脚本会接受最终无法落库的订单
+    @Override
+    @Transactional
+    public Result replenishSeckillStock(Long voucherId, Integer count) {
+        if (count == null || count <= 0) {
+            return Result.fail("补充数量必须大于0");
+        }
+        boolean success = seckillVoucherService.update()
+                .setSql("stock=stock+" + count)
+                .eq("voucher_id", voucherId)
+                .update();
+        if (!success) {
+            return Result.fail("秒杀券不存在!");
+        }
+        SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
+        afterCommit(() -> {
+            //同时重新写入秒杀时间 库存段丢失时也能恢复
+            loadSegments(seckillVoucher, count);
+            //先增加库存再清除标记 清除后的请求一定能看到新的库存
+            soldOutCache.clear(voucherId);
+        });
+        //Redis库存在提交后才增加 返回补充后的预计库存
+        Integer stock = sum(readStocks(List.of(voucherId)));
+        return Result.ok(stock == null ? count : stock + count);
+    }
+
+    //分段之前每张秒杀券的库存和已下单用户各在一个key中 启动时拆分到各段 并预加载秒杀时间
+    //旧库存用GETDEL取出 多个实例同时启动时只有一个实例能取到 不会重复增加
+    @EventListener(ApplicationReadyEvent.class)
+    public void splitLegacyStock() {
+        //只需迁移一次 全部完成后写入标记 中途失败时下次启动重新执行(迁移本身可以重复执行)
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisConstants.SECKILL_STOCK_SPLIT_KEY))) {
+            return;
+        }
+        List<SeckillVoucher> seckillVouchers = seckillVoucherService.query()
+                .select("voucher_id", "begin_time", "end_time").list();
+        for (SeckillVoucher seckillVoucher : seckillVouchers) {
+            Long voucherId = seckillVoucher.getVoucherId();
+            //1.先迁移已下单用户 放入各自所属的段 避免库存迁移后重复下单
+            String legacyOrderKey = RedisConstants.SECKILL_ORDER_KEY + voucherId;
+            Set<String> userIds = stringRedisTemplate.opsForSet().members(legacyOrderKey);
+            if (userIds != null && !userIds.isEmpty()) {
+                Map<Integer, List<String>> bySegment = userIds.stream()
+                        .collect(Collectors.groupingBy(userId -> stockSegments.homeSegment(Long.valueOf(userId))));
+                bySegment.forEach((segment, ids) -> stringRedisTemplate.opsForSet()
+                        .add(stockSegments.orderKey(voucherId, segment), ids.toArray(new String[0])));
+                stringRedisTemplate.delete(legacyOrderKey);
+            }
+            //2.再迁移剩余库存
+            String stock = stringRedisTemplate.opsForValue().getAndDelete(RedisConstants.SECKILL_STOCK_KEY + voucherId);
+            if (stock != null) {
+                loadSegments(seckillVoucher, Integer.parseInt(stock));
+                soldOutCache.clear(voucherId);
+                log.info("秒杀券{}的库存{}已拆分为{}段", voucherId, stock, stockSegments.segments());
+            }
+        }
+        stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_STOCK_SPLIT_KEY, "1");
+    }
+
+    //有事务时在事务提交后执行 没有事务时立即执行
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * Description  把秒杀时间写入各段的hash 增加的库存平均分到各段 库存段和已下单用户在秒杀结束一段时间后自动过期
+     * @param: seckillVoucher 秒杀券信息 需要包含开始和结束时间
+     * @param: count 增加的库存
+     * return void
+     */
+    private void loadSegments(SeckillVoucher seckillVoucher, int count) {
+        Long voucherId = seckillVoucher.getVoucherId();
+        long endMillis = toMillis(seckillVoucher.getEndTime());
+        Map<byte[], byte[]> window = Map.of(
+                bytes(SeckillStockSegments.BEGIN_FIELD), bytes(String.valueOf(toMillis(seckillVoucher.getBeginTime()))),
+                bytes(SeckillStockSegments.END_FIELD), bytes(String.valueOf(endMillis)));
+        long expireAt = endMillis + TimeUnit.DAYS.toMillis(RedisConstants.SECKILL_EXPIRE_DELAY);
+        int[] stocks = stockSegments.split(count);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < stocks.length; i++) {
+                byte[] stockKey = bytes(stockSegments.stockKey(voucherId, i));
+                connection.hashCommands().hMSet(stockKey, window);
+                connection.hashCommands().hIncrBy(stockKey, bytes(SeckillStockSegments.STOCK_FIELD), stocks[i]);
+                connection.keyCommands().pExpireAt(stockKey, expireAt);
+                connection.keyCommands().pExpireAt(bytes(stockSegments.orderKey(voucherId, i)), expireAt);
+            }
+            return null;
+        });
+    }
+
+    //一次管道读取多张秒杀券各段的库存 结果按优惠券、段的顺序排列
+    private List<Object> readStocks(List<Long> voucherIds) {
+        return stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long voucherId : voucherIds) {
+                for (int i = 0; i < stockSegments.segments(); i++) {
+                    connection.hashCommands().hGet(bytes(stockSegments.stockKey(voucherId, i)),
+                            bytes(SeckillStockSegments.STOCK_FIELD));
+                }
+            }
+            return null;
+        });
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    //各段库存之和 所有段都不存在时返回null
+    private static Integer sum(List<Object> stocks) {
+        Integer total = null;
+        for (Object stock : stocks) {
+            if (stock != null) {
+                total = (total == null ? 0 : total) + Integer.parseInt(stock.toString());
+            }
+        }
+        return total;
     }
 }
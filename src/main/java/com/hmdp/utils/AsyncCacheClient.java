@@ -0,0 +1,168 @@
+package com.hmdp.utils;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.cglib.core.internal.Function;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ErenMikasa
+ * Date 2024/10/22
+ */
+//CacheClient的非阻塞版本 返回CompletableFuture 调用方可以同时发起多个缓存查询再组合结果
+//读Redis使用Lettuce的响应式API 不占用调用线程；缓存未命中时查询数据库(MyBatis是阻塞的)交给独立的有界线程池
+//同一个key并发未命中时只有leader向线程池提交一个加载任务 其余请求组合leader的future 不会有线程阻塞等待
+//缓存格式、本地缓存、热点key、监控指标以及未命中后的加载逻辑都与CacheClient共用
+@Component
+public class AsyncCacheClient {
+
+    private final ReactiveRedisTemplate<String, byte[]> reactiveRedisTemplate;
+
+    private final CacheClient cacheClient;
+
+    private final NearCache nearCache;
+
+    private final HotKeyDetector hotKeyDetector;
+
+    private final CacheMetrics cacheMetrics;
+
+    //执行阻塞的数据库查询和缓存写回 队列满时直接拒绝 由返回的future体现异常
+    private final ThreadPoolExecutor loaderExecutor;
+
+    public AsyncCacheClient(ReactiveRedisTemplate<String, byte[]> reactiveRedisTemplate, CacheClient cacheClient,
+                            NearCache nearCache, HotKeyDetector hotKeyDetector, CacheMetrics cacheMetrics) {
+        this.reactiveRedisTemplate = reactiveRedisTemplate;
+        this.cacheClient = cacheClient;
+        this.nearCache = nearCache;
+        this.hotKeyDetector = hotKeyDetector;
+        this.cacheMetrics = cacheMetrics;
+        AtomicInteger threadId = new AtomicInteger();
+        this.loaderExecutor = new ThreadPoolExecutor(
+                RedisConstants.CACHE_ASYNC_LOADER_THREADS, RedisConstants.CACHE_ASYNC_LOADER_THREADS,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(RedisConstants.CACHE_ASYNC_LOADER_QUEUE_SIZE),
+                r -> new Thread(r, "cache-async-loader-" + threadId.incrementAndGet()));
+    }
+
+    /**
+     * Description  异步查询缓存，利用缓存空值的方式解决缓存穿透问题 与CacheClient.queryWithPassThrough一致
+     * @param: keyPrefix 缓存中key的前缀
+     * @param: id 要查询的id 可用于拼接缓存key
+     * @param: type 要返回的java对象类型
+     * @param: dbFallback 调用查询数据库的函数
+     * @param: time 过期时间
+     * @param: unit 过期时间单位
+     * return CompletableFuture<R> 不存在时结果为null
+     */
+    public <R,ID> CompletableFuture<R> queryWithPassThrough(
+            String keyPrefix, ID id, Class<R> type,
+            Function<ID,R> dbFallback, Long time, TimeUnit unit){
+        return cacheMetrics.timeQueryAsync(keyPrefix, "async_pass_through", () -> query(keyPrefix, id, type,
+                key -> cacheClient.loadSharedAsync(key, type,
+                        () -> cacheClient.loadAndCache(keyPrefix, key, id, dbFallback, time, unit), loaderExecutor)));
+    }
+
+    /**
+     * Description  异步查询缓存，利用互斥锁解决缓存击穿问题 与CacheClient.queryWithMutex一致
+     * @param: keyPrefix 缓存中key的前缀
+     * @param: id 要查询的id 可用于拼接缓存key
+     * @param: type 要返回的java对象类型
+     * @param: dbFallback 调用查询数据库的函数
+     * @param: time 过期时间
+     * @param: unit 过期时间单位
+     * return CompletableFuture<R> 不存在时结果为null
+     */
+    public <R,ID> CompletableFuture<R> queryWithMutex(
+            String keyPrefix, ID id, Class<R> type,
+            Function<ID,R> dbFallback, Long time, TimeUnit unit){
+        return cacheMetrics.timeQueryAsync(keyPrefix, "async_mutex", () -> query(keyPrefix, id, type,
+                key -> cacheClient.loadSharedAsync(key, type,
+                        () -> cacheClient.loadWithMutex(keyPrefix, key, id, type, dbFallback, time, unit), loaderExecutor)));
+    }
+
+    /**
+     * Description  异步查询缓存，利用逻辑过期解决缓存击穿问题 与CacheClient.queryWithLogicalExpire一致
+     *              已过期时返回旧数据并提交异步重建 整个过程不会访问数据库
+     * @param: keyPrefix 缓存中key的前缀
+     * @param: id 要查询的id 可用于拼接缓存key
+     * @param: type 要返回的java对象类型
+     * @param: dbFallback 调用查询数据库的函数
+     * @param: time 过期时间
+     * @param: unit 过期时间单位
+     * return CompletableFuture<R> 未命中时结果为null
+     */
+    public <R,ID> CompletableFuture<R> queryWithLogicalExpire(
+            String keyPrefix, ID id, Class<R> type,
+            Function<ID,R> dbFallback, Long time, TimeUnit unit){
+        return cacheMetrics.timeQueryAsync(keyPrefix, "async_logical_expire", () -> {
+            String key = keyPrefix + id;
+            hotKeyDetector.record(key);
+            //0.先查询本地缓存
+            R local = nearCache.get(keyPrefix, key, type);
+            if (local != null) {
+                cacheMetrics.record(keyPrefix, CacheMetrics.LOCAL_HIT);
+                return CompletableFuture.completedFuture(local);
+            }
+            //1.非阻塞查询Redis 结果在Lettuce的IO线程上处理(只做解码 不做阻塞操作)
+            return reactiveRedisTemplate.opsForValue().get(key).toFuture().thenApply(bytes -> {
+                if (bytes == null || bytes.length == 0) {
+                    cacheMetrics.record(keyPrefix, CacheMetrics.MISS);
+                    return null;
+                }
+                CacheCodec codec = cacheClient.codecOf(bytes);
+                R r = codec.decode(bytes, type);
+                if (!cacheClient.shouldRefresh(codec.expireTime(bytes), codec.rebuildCost(bytes), 0)) {
+                    cacheMetrics.record(keyPrefix, CacheMetrics.HIT);
+                    cacheClient.putLocal(keyPrefix, key, r);
+                    return r;
+                }
+                //已过期 提交重建(只入队 不阻塞)并返回旧数据
+                cacheMetrics.record(keyPrefix, CacheMetrics.STALE_HIT);
+                cacheClient.submitRebuild(keyPrefix, key, id, dbFallback, time, unit);
+                return r;
+            });
+        });
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        loaderExecutor.shutdown();
+    }
+
+    //缓存空值方式的公共流程：本地缓存 -> 非阻塞查询Redis -> 未命中时执行onMiss
+    private <R,ID> CompletableFuture<R> query(String keyPrefix, ID id, Class<R> type,
+                                              Function<String, CompletableFuture<R>> onMiss) {
+        String key = keyPrefix + id;
+        hotKeyDetector.record(key);
+        //0.先查询本地缓存
+        R local = nearCache.get(keyPrefix, key, type);
+        if (local != null) {
+            cacheMetrics.record(keyPrefix, CacheMetrics.LOCAL_HIT);
+            return CompletableFuture.completedFuture(local);
+        }
+        //1.非阻塞查询Redis
+        return reactiveRedisTemplate.opsForValue().get(key).toFuture().thenCompose(bytes -> {
+            //2.命中 直接返回 同时写入本地缓存
+            if (bytes != null && bytes.length > 0) {
+                cacheMetrics.record(keyPrefix, CacheMetrics.HIT);
+                R r = cacheClient.codecOf(bytes).decode(bytes, type);
+                cacheClient.putLocal(keyPrefix, key, r);
+                return CompletableFuture.completedFuture(r);
+            }
+            //3.命中空值 防止缓存穿透
+            if (bytes != null) {
+                cacheMetrics.record(keyPrefix, CacheMetrics.NULL_HIT);
+                return CompletableFuture.completedFuture(null);
+            }
+            //4.未命中 由leader在加载线程池中查询数据库并写回缓存 其余请求共享结果
+            cacheMetrics.record(keyPrefix, CacheMetrics.MISS);
+            return onMiss.apply(key);
+        });
+    }
+}
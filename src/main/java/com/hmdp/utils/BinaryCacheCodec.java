@@ -0,0 +1,117 @@
+package com.hmdp.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * ErenMikasa
+ * Date 2024/10/22
+ */
+//二进制格式：固定长度的数据头 + 数据
+//  [魔数1字节][版本1字节][逻辑过期时间8字节][重建耗时4字节][标志1字节] [数据]
+//  标志位COMPRESSED表示数据为 [原始长度4字节][LZ4压缩后的Jackson数据]
+//判断逻辑过期只需要读取数据头 数据只在需要返回时反序列化一次 直接得到目标类型
+//数据部分与接口返回的JSON格式一致(使用同一个ObjectMapper) 超过阈值的数据压缩后存储 读取时自动解压
+@Component
+public class BinaryCacheCodec implements CacheCodec {
+
+    private static final byte MAGIC = (byte) 0xCA;//JSON不可能以该字节开头 用于区分新旧格式
+    private static final byte VERSION = 3;
+    public static final int HEADER_LENGTH = 15;
+    private static final int FLAGS_OFFSET = 14;//标志位所在的下标
+
+    private static final byte COMPRESSED = 1;//数据已压缩
+
+    private static final LZ4Compressor COMPRESSOR = LZ4Factory.fastestInstance().fastCompressor();
+    private static final LZ4FastDecompressor DECOMPRESSOR = LZ4Factory.fastestInstance().fastDecompressor();
+
+    private final ObjectMapper objectMapper;
+
+    private final int compressThreshold;//数据超过该字节数时压缩 小数据压缩收益低于CPU开销
+
+    public BinaryCacheCodec(ObjectMapper objectMapper,
+                            @Value("${hmdp.cache.compress-threshold:1024}") int compressThreshold) {
+        this.objectMapper = objectMapper;
+        this.compressThreshold = compressThreshold;
+    }
+
+    @Override
+    public String name() {
+        return "binary";
+    }
+
+    @Override
+    public byte[] encode(Object value, long expireTime, int rebuildCost) {
+        try {
+            byte[] data = objectMapper.writeValueAsBytes(value);
+            byte flags = 0;
+            if (data.length > compressThreshold) {
+                byte[] compressed = COMPRESSOR.compress(data);
+                //压缩后没有变小(例如已经压缩过的数据)则按原样存储
+                if (compressed.length + 4 < data.length) {
+                    data = ByteBuffer.allocate(4 + compressed.length).putInt(data.length).put(compressed).array();
+                    flags = COMPRESSED;
+                }
+            }
+            return ByteBuffer.allocate(HEADER_LENGTH + data.length)
+                    .put(MAGIC)
+                    .put(VERSION)
+                    .putLong(expireTime)
+                    .putInt(rebuildCost)
+                    .put(flags)
+                    .put(data)
+                    .array();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public boolean supports(byte[] bytes) {
+        return bytes.length >= HEADER_LENGTH && bytes[0] == MAGIC && bytes[1] == VERSION;
+    }
+
+    @Override
+    public long expireTime(byte[] bytes) {
+        return ByteBuffer.wrap(bytes).getLong(2);
+    }
+
+    @Override
+    public int rebuildCost(byte[] bytes) {
+        return ByteBuffer.wrap(bytes).getInt(10);
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        try {
+            if ((bytes[FLAGS_OFFSET] & COMPRESSED) == 0) {
+                return objectMapper.readValue(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH, type);
+            }
+            //解压后再反序列化
+            return objectMapper.readValue(decompress(bytes), type);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    //数据部分就是Jackson序列化的JSON 未压缩时直接引用原数组中的字节
+    @Override
+    public RawJson rawJson(byte[] bytes) {
+        if ((bytes[FLAGS_OFFSET] & COMPRESSED) == 0) {
+            return new RawJson(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH);
+        }
+        return RawJson.of(decompress(bytes));
+    }
+
+    private static byte[] decompress(byte[] bytes) {
+        int length = ByteBuffer.wrap(bytes).getInt(HEADER_LENGTH);
+        return DECOMPRESSOR.decompress(bytes, HEADER_LENGTH + 4, length);
+    }
+}
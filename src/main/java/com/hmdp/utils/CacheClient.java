@@ -1,41 +1,131 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
-import com.hmdp.entity.Shop;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cglib.core.internal.Function;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
-import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
 /**
  * ErenMikasa
  * Date 2024/10/22
  */
-//封装工具类 解决缓存穿透 缓存击穿（逻辑过期方法）
+//封装工具类 解决缓存穿透 缓存击穿（逻辑过期方法） 可选进程内一级缓存
 @Slf4j
 @Component
 public class CacheClient {
 
     private final StringRedisTemplate stringRedisTemplate;
 
-    //创建一个线程池 用于逻辑过期
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private final RedisTemplate<String, byte[]> byteRedisTemplate;//缓存值统一按字节读写 由编解码器决定格式
 
+    private final List<CacheCodec> codecs;//所有编解码器 读取时按数据头选择
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    private final CacheCodec writeCodec;//写入时使用的编解码器
+
+    private final NearCache nearCache;//进程内一级缓存
+
+    private final RedisBloomFilter bloomFilter;//布隆过滤器 拦截不存在的id
+
+    private final CacheRebuildScheduler rebuildScheduler;//逻辑过期的异步重建
+
+    private final HotKeyDetector hotKeyDetector;//热点key探测 热点key自动复制到本地
+
+    private final CacheExpiryPolicy expiryPolicy;//过期时间随机偏移 防止缓存雪崩
+
+    private final CacheMetrics cacheMetrics;//按key前缀统计命中率和耗时
+
+    private final ObjectMapper objectMapper;//编解码器不支持直接取出JSON时 用于把旧格式数据转换为接口返回的JSON
+
+    //缓存空值 防止缓存穿透
+    private static final byte[] NULL_VALUE = new byte[0];
+
+    //正在进行中的缓存加载 同一个key在本JVM内只有一个线程去加载 其余线程共享结果
+    private final Map<String, CompletableFuture<Object>> inFlightLoads = new ConcurrentHashMap<>();
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate, RedisTemplate<String, byte[]> byteRedisTemplate,
+                       List<CacheCodec> codecs, @Value("${hmdp.cache.codec:binary}") String codecName,
+                       NearCache nearCache, RedisBloomFilter bloomFilter, CacheRebuildScheduler rebuildScheduler,
+                       HotKeyDetector hotKeyDetector, CacheExpiryPolicy expiryPolicy, CacheMetrics cacheMetrics,
+                       ObjectMapper objectMapper) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.byteRedisTemplate = byteRedisTemplate;
+        this.codecs = codecs;
+        this.writeCodec = codecs.stream()
+                .filter(codec -> codec.name().equals(codecName))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("未知的缓存编解码器:" + codecName));
+        this.nearCache = nearCache;
+        this.bloomFilter = bloomFilter;
+        this.rebuildScheduler = rebuildScheduler;
+        this.hotKeyDetector = hotKeyDetector;
+        this.expiryPolicy = expiryPolicy;
+        this.cacheMetrics = cacheMetrics;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Description  为指定key前缀开启进程内一级缓存，热点数据直接在JVM内返回，不再访问Redis
+     * @param: keyPrefix 缓存中key的前缀
+     * @param: capacity 本地缓存容量
+     * @param: time 本地缓存存活时间
+     * @param: unit 存活时间单位
+     * return void
+     */
+    public void enableLocalCache(String keyPrefix, int capacity, Long time, TimeUnit unit) {
+        nearCache.enable(keyPrefix, capacity, time, unit);
+    }
+
+    /**
+     * Description  删除缓存，并通知所有实例删除对应的本地缓存
+     * @param: key 缓存中的key
+     * return void
+     */
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        nearCache.invalidate(key);
+    }
+
+    /**
+     * Description  批量删除缓存(一次DEL) 并通知所有实例删除对应的本地缓存
+     * @param: keys 缓存中的key集合
+     * return void
+     */
+    public void deleteAll(Collection<String> keys) {
+        stringRedisTemplate.delete(keys);
+        nearCache.invalidateAll(keys);
     }
 
     /**
-     * Description  将任意Java对象序列化为JSON，存储到Redis缓存中，并可以设置TTL过期时间
+     * Description  将任意Java对象序列化，存储到Redis缓存中，并可以设置TTL过期时间
      * @param: key 缓存中的key
      * @param: value 要存储的java对象
      * @param: time  过期时间
@@ -43,11 +133,13 @@ public class CacheClient {
      * return void
      */
     public void set(String key, Object value, Long time, TimeUnit unit){
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        byteRedisTemplate.opsForValue().set(key, writeCodec.encode(value, 0),
+                expiryPolicy.ttlMillis(key, time, unit), TimeUnit.MILLISECONDS);//TTL加上随机偏移 防止同时过期
+        nearCache.invalidate(key);//通知各实例本地缓存失效
     }
 
     /**
-     * Description   将任意Java对象序列化为JSON，存储到Redis缓存中，并可以设置逻辑过期时间
+     * Description   将任意Java对象序列化，存储到Redis缓存中，并可以设置逻辑过期时间
      * @param: key  缓存中的key
      * @param: value 要存储的java对象
      * @param: time  过期时间
@@ -55,12 +147,34 @@ public class CacheClient {
      * return void
      */
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit){
-        //设置逻辑过期
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
+        setWithLogicalExpire(key, value, time, unit, 0);
+    }
+
+    //写入逻辑过期数据 同时记录本次重建缓存的耗时(毫秒) 供提前刷新计算概率
+    private void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit, int rebuildCost){
+        //设置逻辑过期 写入数据头 过期时间加上随机偏移
+        long expireTime = System.currentTimeMillis() + expiryPolicy.ttlMillis(key, time, unit);
         //写入Redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        byteRedisTemplate.opsForValue().set(key, writeCodec.encode(value, expireTime, rebuildCost));
+        nearCache.invalidate(key);//通知各实例本地缓存失效
+    }
+
+    /**
+     * Description  批量写入逻辑过期的数据 一次pipeline写入 用于缓存预热
+     *              不发送本地缓存失效通知(预热时各实例本地缓存基本为空 且本地缓存有较短的存活时间兜底)
+     * @param: keyPrefix 缓存中key的前缀
+     * @param: values 要存储的java对象集合
+     * @param: idGetter 获取对象的id 用于拼接缓存key
+     * @param: time  过期时间
+     * @param: unit  过期时间单位
+     * return void
+     */
+    public <R,ID> void setBatchWithLogicalExpire(String keyPrefix, List<R> values, Function<R,ID> idGetter, Long time, TimeUnit unit){
+        Map<ID,R> byId = new LinkedHashMap<>();
+        for (R value : values) {
+            byId.put(idGetter.apply(value), value);
+        }
+        writeBatch(keyPrefix, new ArrayList<>(byId.keySet()), byId, true, time, unit, 0);
     }
 
     /**
@@ -76,32 +190,80 @@ public class CacheClient {
     public <R,ID> R queryWithPassThrough(
             String keyPrefix, ID id, Class<R> type,
             Function<ID,R> dbFallback, Long time, TimeUnit unit){
+        return cacheMetrics.timeQuery(keyPrefix, "pass_through",
+                () -> doQueryWithPassThrough(keyPrefix, id, type, dbFallback, time, unit));
+    }
+
+    private <R,ID> R doQueryWithPassThrough(
+            String keyPrefix, ID id, Class<R> type,
+            Function<ID,R> dbFallback, Long time, TimeUnit unit){
         String key = keyPrefix + id;//key
+        hotKeyDetector.record(key);//热点key探测
+        //0.先查询本地缓存
+        R local = nearCache.get(keyPrefix, key, type);
+        if (local != null) {
+            cacheMetrics.record(keyPrefix, CacheMetrics.LOCAL_HIT);
+            return local;
+        }
         //1.从Redis中查询
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = byteRedisTemplate.opsForValue().get(key);
         //2.判断缓存是否命中
-        if (StrUtil.isNotBlank(json)) {//存在且不为空字符串
-            //直接返回
-            return JSONUtil.toBean(json, type);
+        if (bytes != null && bytes.length > 0) {//存在且不为空字符串
+            //直接返回 同时写入本地缓存
+            cacheMetrics.record(keyPrefix, CacheMetrics.HIT);
+            R r = codecOf(bytes).decode(bytes, type);
+            putLocal(keyPrefix, key, r);
+            return r;
         }
         //3.若此时存在缓存，但为空字符串，返回错误信息,防止缓存穿透
-        if (json != null) {
+        if (bytes != null) {
+            cacheMetrics.record(keyPrefix, CacheMetrics.NULL_HIT);
             return null;
         }
 
-        //4.缓存中不存在，即为null，则从数据库中查询
-        R r = dbFallback.apply(id);
+        //4.缓存中不存在，即为null，则从数据库中查询并写入缓存
+        cacheMetrics.record(keyPrefix, CacheMetrics.MISS);
+        return loadAndCache(keyPrefix, key, id, dbFallback, time, unit);
+    }
+
+    //缓存未命中：查询数据库 存在则写入缓存 不存在则缓存空值
+    <R,ID> R loadAndCache(String keyPrefix, String key, ID id, Function<ID,R> dbFallback, Long time, TimeUnit unit) {
+        R r = loadFromDb(keyPrefix, id, dbFallback);
         //5.判断数据库是否存在,若不存在，就向Redis的缓存中存入一个空字符串,防止缓存穿透
         if (r == null) {
             //对应键的值为空字符串 且设置较短的过期时间
-            stringRedisTemplate.opsForValue().set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+            byteRedisTemplate.opsForValue().set(key, NULL_VALUE,
+                    expiryPolicy.ttlMillis(key, RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES), TimeUnit.MILLISECONDS);
             return null;
         }
-        //6.存在，则以字符串的形式存入缓存，并设置过期时间
-        this.setWithLogicalExpire(key, r, time, unit);
+        //6.存在，则以字符串的形式存入缓存，并设置过期时间(读取时直接反序列化为对象 因此不能使用逻辑过期的格式)
+        this.set(key, r, time, unit);
         //7.最后返回该数据
         return r;
     }
+
+    /**
+     * Description  先用布隆过滤器判断id是否可能存在，不存在直接返回null，不访问Redis和数据库；
+     *              可能存在再按缓存空值的方式查询(误判的id仍会缓存空值) 过滤器名称使用keyPrefix
+     * @param: keyPrefix 缓存中key的前缀
+     * @param: id 要查询的id 可用于拼接缓存key
+     * @param: type 要返回的java对象类型
+     * @param: dbFallback 调用查询数据库的函数 采用函数式编程 传入一个参数返回一个对象
+     * @param: time 过期时间
+     * @param: unit 过期时间单位
+     * return R 返回指定java类型的对象
+     */
+    public <R,ID> R queryWithBloomFilter(
+            String keyPrefix, ID id, Class<R> type,
+            Function<ID,R> dbFallback, Long time, TimeUnit unit){
+        return cacheMetrics.timeQuery(keyPrefix, "bloom_filter", () -> {
+            if (!bloomFilter.mightContain(keyPrefix, id)) {
+                cacheMetrics.record(keyPrefix, CacheMetrics.BLOOM_REJECT);
+                return null;
+            }
+            return doQueryWithPassThrough(keyPrefix, id, type, dbFallback, time, unit);
+        });
+    }
     /**
      * Description  根据指定的Key查询缓存，并反序列化为指定类型，需要利用逻辑过期解决缓存击穿问题
      * @param: keyPrefix 缓存中key的前缀
@@ -115,61 +277,111 @@ public class CacheClient {
     public <R,ID> R queryWithLogicalExpire(
             String keyPrefix, ID id, Class<R> type,
             Function<ID,R> dbFallback, Long time, TimeUnit unit){
+        return cacheMetrics.timeQuery(keyPrefix, "logical_expire",
+                () -> doQueryWithLogicalExpire(keyPrefix, id, type, (codec, bytes) -> codec.decode(bytes, type),
+                        dbFallback, time, unit, 0));
+    }
+
+    /**
+     * Description  逻辑过期的基础上提前刷新(XFetch)：每次读取时按概率决定是否在过期前提前重建缓存
+     *              越接近过期时间、上次重建耗时越长，提前刷新的概率越大，热点key的重建在时间上分散开，
+     *              避免各实例在过期时刻同时重建
+     * @param: keyPrefix 缓存中key的前缀
+     * @param: id 要查询的id 可用于拼接缓存key
+     * @param: type 要返回的java对象类型
+     * @param: dbFallback 调用查询数据库的函数 采用函数式编程 传入一个参数返回一个对象
+     * @param: time 过期时间
+     * @param: unit 过期时间单位
+     * return R 返回指定java类型的对象
+     */
+    public <R,ID> R queryWithEarlyRefresh(
+            String keyPrefix, ID id, Class<R> type,
+            Function<ID,R> dbFallback, Long time, TimeUnit unit){
+        return cacheMetrics.timeQuery(keyPrefix, "early_refresh",
+                () -> doQueryWithLogicalExpire(keyPrefix, id, type, (codec, bytes) -> codec.decode(bytes, type),
+                        dbFallback, time, unit, RedisConstants.CACHE_EARLY_REFRESH_BETA));
+    }
+
+    /**
+     * Description  与queryWithEarlyRefresh相同 但不反序列化 直接返回缓存中数据部分的JSON 用于原样写入接口响应
+     *              本地缓存中存放的也是JSON 与对象类型的本地缓存互不干扰
+     * @param: keyPrefix 缓存中key的前缀
+     * @param: id 要查询的id 可用于拼接缓存key
+     * @param: type 缓存的java对象类型 只在转换旧格式数据时使用
+     * @param: dbFallback 调用查询数据库的函数 采用函数式编程 传入一个参数返回一个对象
+     * @param: time 过期时间
+     * @param: unit 过期时间单位
+     * return RawJson 未命中或数据不存在时返回null
+     */
+    public <R,ID> RawJson queryRawWithEarlyRefresh(
+            String keyPrefix, ID id, Class<R> type,
+            Function<ID,R> dbFallback, Long time, TimeUnit unit){
+        RawJson json = cacheMetrics.timeQuery(keyPrefix, "early_refresh_raw",
+                () -> doQueryWithLogicalExpire(keyPrefix, id, RawJson.class, (codec, bytes) -> rawJsonOf(codec, bytes, type),
+                        dbFallback, time, unit, RedisConstants.CACHE_EARLY_REFRESH_BETA));
+        return json == null || json.isNull() ? null : json;
+    }
+
+    //beta为0时即普通的逻辑过期 beta越大越倾向于提前刷新
+    //type为本地缓存中的对象类型 reader负责把缓存数据转换为该类型
+    private <T,R,ID> T doQueryWithLogicalExpire(
+            String keyPrefix, ID id, Class<T> type, BiFunction<CacheCodec, byte[], T> reader,
+            Function<ID,R> dbFallback, Long time, TimeUnit unit, double beta){
         String key = keyPrefix + id;//key
+        hotKeyDetector.record(key);//热点key探测
+        //0.先查询本地缓存 本地缓存中只存放未逻辑过期的数据
+        T local = nearCache.get(keyPrefix, key, type);
+        if (local != null) {
+            cacheMetrics.record(keyPrefix, CacheMetrics.LOCAL_HIT);
+            return local;
+        }
         //1.从Redis中查询
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = byteRedisTemplate.opsForValue().get(key);
         //2.判断缓存是否命中
-        if (StrUtil.isBlank(json)) {
+        if (bytes == null || bytes.length == 0) {
             //3.未命中，直接返回（因为是逻辑过期，只要存在热点店铺必然缓存命中）
+            cacheMetrics.record(keyPrefix, CacheMetrics.MISS);
             return null;
         }
-        //4.若缓存命中，则将JSON反序列化为Shop对象 两步
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-        //获得对应在缓存中的过期时间
-        LocalDateTime expireTime = redisData.getExpireTime();
-        //5.判断是否过期
-        if (expireTime.isAfter(LocalDateTime.now())) {
-            //如果未过期，则直接返回对象
-            return r;
+        //4.若缓存命中，先只读取数据头中的过期时间
+        CacheCodec codec = codecOf(bytes);
+        //5.判断是否过期(或需要提前刷新)
+        if (!shouldRefresh(codec.expireTime(bytes), codec.rebuildCost(bytes), beta)) {
+            //如果未过期，则反序列化 写入本地缓存并直接返回对象
+            cacheMetrics.record(keyPrefix, CacheMetrics.HIT);
+            T t = reader.apply(codec, bytes);
+            putLocal(keyPrefix, key, t);
+            return t;
         }
 
-        //6.如果已经过期，进行缓存重建
-        //6.1 获得互斥锁
-        String lockKey = RedisConstants.LOCK_SHOP_KEY + id;//互斥锁key
-        boolean isLock = tryLock(lockKey);
-        //6.2 判断互斥锁是否获取成功
-        if (isLock) {
-            //6.3 获取锁成功 开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    //缓存重建 即查询数据库+重新设置逻辑过期时间
-                    R newR = dbFallback.apply(id);
-                    this.setWithLogicalExpire(key, newR, time, unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    //释放锁
-                    unLock(lockKey);
-                }
-            });
+        //6.如果已经过期，交给重建调度器异步重建(同一key只排队一次 执行前获取互斥锁)
+        cacheMetrics.record(keyPrefix, CacheMetrics.STALE_HIT);
+        submitRebuild(keyPrefix, key, id, dbFallback, time, unit);
+        //7.返回过期数据(整个过程只反序列化一次)
+        return reader.apply(codec, bytes);
+    }
+
+    //取出缓存数据中的JSON 旧格式数据先反序列化再按接口格式序列化
+    private <R> RawJson rawJsonOf(CacheCodec codec, byte[] bytes, Class<R> type) {
+        RawJson json = codec.rawJson(bytes);
+        if (json != null) {
+            return json;
         }
-        //6.4 获取锁失败,再次检测缓存是否过期（可能获得锁的进程实现了缓存重建），防止堆积的线程先后获得锁后都访问请求数据库，造成数据库压力
-        json = stringRedisTemplate.opsForValue().get(key);
-        if (StrUtil.isBlank(json)) {
-            //未命中，直接返回
-            return null;
+        try {
+            return RawJson.of(objectMapper.writeValueAsBytes(codec.decode(bytes, type)));
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
         }
-        //若缓存命中，则将JSON反序列化为Shop对象
-        redisData = JSONUtil.toBean(json, RedisData.class);
-        r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-//        expireTime = redisData.getExpireTime();//获得对应在缓存中的过期时间
-//        if (expireTime.isAfter(LocalDateTime.now())) {
-//            //
-//            return r;
-//        }
-        //如果未过期，则直接返回对象;否则此时返回的是过期数据
-        return r;
+    }
+
+    //提交逻辑过期数据的异步重建
+    <R,ID> void submitRebuild(String keyPrefix, String key, ID id, Function<ID,R> dbFallback, Long time, TimeUnit unit) {
+        rebuildScheduler.submit(keyPrefix, key, () -> {
+            //缓存重建 即查询数据库+重新设置逻辑过期时间 并记录重建耗时
+            long start = System.currentTimeMillis();
+            R newR = loadFromDb(keyPrefix, id, dbFallback);
+            this.setWithLogicalExpire(key, newR, time, unit, (int) (System.currentTimeMillis() - start));
+        });
     }
 
 
@@ -186,70 +398,415 @@ public class CacheClient {
     public <R,ID> R queryWithMutex(
             String keyPrefix, ID id, Class<R> type,
             Function<ID,R> dbFallback, Long time, TimeUnit unit){
+        return cacheMetrics.timeQuery(keyPrefix, "mutex",
+                () -> doQueryWithMutex(keyPrefix, id, type, dbFallback, time, unit));
+    }
+
+    private <R,ID> R doQueryWithMutex(
+            String keyPrefix, ID id, Class<R> type,
+            Function<ID,R> dbFallback, Long time, TimeUnit unit){
         String key = keyPrefix + id;//key
+        hotKeyDetector.record(key);//热点key探测
+        //0.先查询本地缓存
+        R local = nearCache.get(keyPrefix, key, type);
+        if (local != null) {
+            cacheMetrics.record(keyPrefix, CacheMetrics.LOCAL_HIT);
+            return local;
+        }
         //1.从Redis中查询
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = byteRedisTemplate.opsForValue().get(key);
         //2.判断缓存是否命中
-        if (StrUtil.isNotBlank(json)) {//存在且不为空字符串
-            //直接返回
-            return JSONUtil.toBean(json, type);
+        if (bytes != null && bytes.length > 0) {//存在且不为空字符串
+            //直接返回 同时写入本地缓存
+            cacheMetrics.record(keyPrefix, CacheMetrics.HIT);
+            R r = codecOf(bytes).decode(bytes, type);
+            putLocal(keyPrefix, key, r);
+            return r;
         }
         //3.若此时存在缓存，但为空字符串，返回空
-        if (json != null) {
+        if (bytes != null) {
+            cacheMetrics.record(keyPrefix, CacheMetrics.NULL_HIT);
             return null;
         }
+        cacheMetrics.record(keyPrefix, CacheMetrics.MISS);
+        return loadWithSingleFlight(keyPrefix, key, id, type, dbFallback, time, unit);
+    }
+
+    <R,ID> R loadWithSingleFlight(
+            String keyPrefix, String key, ID id, Class<R> type,
+            Function<ID,R> dbFallback, Long time, TimeUnit unit){
+        //4.缓存未命中 同一JVM内的并发请求合并为一次加载(single-flight)
+        //  只有首个线程(leader)去竞争分布式锁重建缓存 其余线程直接等待leader的结果 不再轮询Redis
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = inFlightLoads.putIfAbsent(key, future);
+        if (inFlight != null) {
+            //4.1 已有线程在加载该key 等待其结果
+            return type.cast(awaitLoad(key, inFlight));
+        }
+        try {
+            //4.2 当前线程为leader 在分布式锁的保护下加载 保证整个集群只有一个请求访问数据库
+            R r = loadWithMutex(keyPrefix, key, id, type, dbFallback, time, unit);
+            future.complete(r);
+            return r;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightLoads.remove(key, future);
+        }
+    }
 
-        //4.使用互斥锁，实现缓存重建，即允许一个请求查询数据库建立缓存
-        //4.1尝试获得互斥锁
-        String lockKey = RedisConstants.LOCK_SHOP_KEY + id;//先构建一个key
-        R r= null;
+    /**
+     * Description  single-flight的非阻塞版本 供AsyncCacheClient使用 与同步调用共享进行中的加载
+     *              leader把加载任务提交到executor 其余调用方直接组合leader的future 不占用任何线程等待
+     * @param: key 缓存key
+     * @param: type 要返回的java对象类型
+     * @param: loader 未命中时的加载逻辑(阻塞) 只由leader执行
+     * @param: executor 执行加载逻辑的线程池
+     * return CompletableFuture<R> 最多等待一个锁的有效期
+     */
+    <R> CompletableFuture<R> loadSharedAsync(String key, Class<R> type, Supplier<R> loader, Executor executor) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = inFlightLoads.putIfAbsent(key, future);
+        if (inFlight != null) {
+            //已有请求在加载该key 组合其结果 超时只影响当前调用方 不影响leader
+            return inFlight.thenApply(type::cast).orTimeout(RedisConstants.LOCK_SHOP_TTL, TimeUnit.SECONDS);
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(loader.get());
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    inFlightLoads.remove(key, future);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //线程池已满 本次加载失败 等待该key的其他调用方同样失败 下次请求重新选出leader
+            inFlightLoads.remove(key, future);
+            future.completeExceptionally(e);
+        }
+        return future.thenApply(type::cast);
+    }
 
+    //leader线程：获取分布式互斥锁后查询数据库重建缓存 获取失败则循环等待其他实例重建完成(循环代替递归 避免栈增长)
+    <R,ID> R loadWithMutex(
+            String keyPrefix, String key, ID id, Class<R> type,
+            Function<ID,R> dbFallback, Long time, TimeUnit unit){
+        String lockKey = CacheRebuildScheduler.lockKey(key);//由缓存key派生互斥锁key
+        String owner = UUID.fastUUID().toString(true);//锁的持有者标识 释放时只删除自己的锁
+        //最多等待一个锁的有效期 之后锁必然已经释放或过期
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(RedisConstants.LOCK_SHOP_TTL);
         try {
-            boolean isLock = tryLock(lockKey);//尝试获得互斥锁
-            if (!isLock) {
-                //4.2若获取互斥锁失败，休眠一段时间后递归继续获取
+            boolean contended = false;
+            while (!tryLock(lockKey, owner)) {
+                if (!contended) {
+                    contended = true;
+                    cacheMetrics.lockContention(keyPrefix);
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    throw new RuntimeException("等待缓存重建超时:" + key);
+                }
+                //获取互斥锁失败，说明其他实例正在重建，休眠一段时间后检查缓存是否已重建
                 Thread.sleep(50);
-                return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit);
+                byte[] bytes = byteRedisTemplate.opsForValue().get(key);
+                if (bytes != null && bytes.length > 0) {
+                    return codecOf(bytes).decode(bytes, type);
+                }
+                if (bytes != null) {//判断空字符串，避免缓存穿透
+                    return null;
+                }
             }
-            //4.4 若获取互斥锁成功
-            // 第二次检查，需要再查询一次Redis缓存，判断缓存是否重建,若已重建则直接访问缓存，防止堆积的线程先后获得锁后全部请求查询数据库
-            json = stringRedisTemplate.opsForValue().get(key);
-            if (StrUtil.isNotBlank(json)) {//4.5 缓存中的数据依旧存在
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+
+        try {
+            //若获取互斥锁成功
+            // 第二次检查，需要再查询一次Redis缓存，判断缓存是否重建,若已重建则直接访问缓存，防止其他实例刚重建完又查询数据库
+            byte[] bytes = byteRedisTemplate.opsForValue().get(key);
+            if (bytes != null && bytes.length > 0) {//缓存中的数据依旧存在
                 //直接返回
-                return JSONUtil.toBean(json, type);
+                return codecOf(bytes).decode(bytes, type);
             }
-            if (json != null) {//判断空字符串，避免缓存穿透
+            if (bytes != null) {//判断空字符串，避免缓存穿透
                 return null;
             }
 
-            //4.6 否则缓存中不存在，即为null，则再从数据库中查询
-            r = dbFallback.apply(id);
-            //5.判断数据库是否存在店铺,若不存在，就向Redis的缓存中存入一个空字符串,防止缓存穿透
+            //否则缓存中不存在，即为null，则再从数据库中查询
+            R r = loadFromDb(keyPrefix, id, dbFallback);
+            //判断数据库是否存在,若不存在，就向Redis的缓存中存入一个空字符串,防止缓存穿透
             if (r == null) {
                 //对应键的值为空字符串 且设置较短的过期时间
-                stringRedisTemplate.opsForValue().set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+                byteRedisTemplate.opsForValue().set(key, NULL_VALUE,
+                        expiryPolicy.ttlMillis(key, RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES), TimeUnit.MILLISECONDS);
                 return null;
             }
-            //6.存在店铺，则以字符串的形式存入缓存，并设置过期时间
-            this.setWithLogicalExpire(key, r, time, unit);
-            //7.最后返回该店铺数据
+            //存在，则以字符串的形式存入缓存，并设置过期时间(读取时直接反序列化为对象 因此不能使用逻辑过期的格式)
+            this.set(key, r, time, unit);
+            //最后返回该数据
             return r;
-        } catch (InterruptedException e) {
-            throw new RuntimeException();
         } finally {
-            unLock(lockKey);
+            //只释放自己获得的锁 查询数据库超过锁的有效期时 锁可能已被其他实例获得
+            unLock(lockKey, owner);
+        }
+    }
+
+    /**
+     * Description  批量查询缓存，利用缓存空值的方式解决缓存穿透问题
+     *              一次MGET查询所有key 未命中的id通过一次IN查询从数据库加载 再通过一次pipeline写回Redis
+     * @param: keyPrefix 缓存中key的前缀
+     * @param: ids 要查询的id集合
+     * @param: type 要返回的java对象类型
+     * @param: batchDbFallback 批量查询数据库的函数 例如listByIds
+     * @param: idGetter 从数据库返回的对象中获取id 用于与查询的id对应
+     * @param: time 过期时间
+     * @param: unit 过期时间单位
+     * return List<R> 按ids的顺序返回 不存在的数据不包含在结果中
+     */
+    public <R,ID> List<R> queryBatchWithPassThrough(
+            String keyPrefix, List<ID> ids, Class<R> type,
+            Function<List<ID>,List<R>> batchDbFallback, Function<R,ID> idGetter, Long time, TimeUnit unit){
+        return cacheMetrics.timeQuery(keyPrefix, "batch_pass_through",
+                () -> doQueryBatchWithPassThrough(keyPrefix, ids, type, batchDbFallback, idGetter, time, unit));
+    }
+
+    private <R,ID> List<R> doQueryBatchWithPassThrough(
+            String keyPrefix, List<ID> ids, Class<R> type,
+            Function<List<ID>,List<R>> batchDbFallback, Function<R,ID> idGetter, Long time, TimeUnit unit){
+        Map<ID,R> found = new HashMap<>();
+        //1.批量查询本地缓存和Redis
+        List<ID> misses = multiGet(keyPrefix, ids, type, found, null);
+        //2.缓存中不存在的数据 一次查询数据库 一次写回Redis(数据库不存在的写入空值)
+        if (!misses.isEmpty()) {
+            Map<ID,R> loaded = loadBatch(keyPrefix, misses, batchDbFallback, idGetter);
+            nearCache.invalidateAll(writeBatch(keyPrefix, misses, loaded, false, time, unit, 0));
+            found.putAll(loaded);
         }
+        //3.按调用方的id顺序返回
+        return inOrder(ids, found);
+    }
+
+    /**
+     * Description  批量查询缓存，利用逻辑过期解决缓存击穿问题
+     *              已过期的数据先返回旧值 由独立线程批量重建；缓存中不存在的数据同步批量加载并写入逻辑过期时间
+     * @param: keyPrefix 缓存中key的前缀
+     * @param: ids 要查询的id集合
+     * @param: type 要返回的java对象类型
+     * @param: batchDbFallback 批量查询数据库的函数 例如listByIds
+     * @param: idGetter 从数据库返回的对象中获取id 用于与查询的id对应
+     * @param: time 过期时间
+     * @param: unit 过期时间单位
+     * return List<R> 按ids的顺序返回 不存在的数据不包含在结果中
+     */
+    public <R,ID> List<R> queryBatchWithLogicalExpire(
+            String keyPrefix, List<ID> ids, Class<R> type,
+            Function<List<ID>,List<R>> batchDbFallback, Function<R,ID> idGetter, Long time, TimeUnit unit){
+        return cacheMetrics.timeQuery(keyPrefix, "batch_logical_expire",
+                () -> doQueryBatchWithLogicalExpire(keyPrefix, ids, type, batchDbFallback, idGetter, time, unit));
+    }
+
+    private <R,ID> List<R> doQueryBatchWithLogicalExpire(
+            String keyPrefix, List<ID> ids, Class<R> type,
+            Function<List<ID>,List<R>> batchDbFallback, Function<R,ID> idGetter, Long time, TimeUnit unit){
+        Map<ID,R> found = new HashMap<>();
+        List<ID> expired = new ArrayList<>();
+        //1.批量查询本地缓存和Redis 已过期的数据同样返回旧值
+        List<ID> misses = multiGet(keyPrefix, ids, type, found, expired);
+        //2.已过期的数据交给独立线程重建 不阻塞本次请求
+        if (!expired.isEmpty()) {
+            rebuildBatch(keyPrefix, expired, batchDbFallback, idGetter, time, unit);
+        }
+        //3.缓存中不存在的数据 一次查询数据库 一次写回Redis
+        if (!misses.isEmpty()) {
+            long start = System.currentTimeMillis();
+            Map<ID,R> loaded = loadBatch(keyPrefix, misses, batchDbFallback, idGetter);
+            nearCache.invalidateAll(writeBatch(keyPrefix, misses, loaded, true, time, unit, (int) (System.currentTimeMillis() - start)));
+            found.putAll(loaded);
+        }
+        //4.按调用方的id顺序返回
+        return inOrder(ids, found);
+    }
+
+    //批量查询本地缓存和Redis(一次MGET) 命中的数据放入found 返回缓存中不存在的id 缓存空值的id既不命中也不返回
+    //expired不为null时按逻辑过期判断 已过期的数据同样放入found 但不写入本地缓存 其id放入expired
+    private <R,ID> List<ID> multiGet(String keyPrefix, List<ID> ids, Class<R> type, Map<ID,R> found, List<ID> expired) {
+        List<ID> misses = new ArrayList<>();
+        List<ID> remoteIds = new ArrayList<>();
+        List<String> remoteKeys = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {//去重
+            String key = keyPrefix + id;
+            hotKeyDetector.record(key);
+            R local = nearCache.get(keyPrefix, key, type);
+            if (local != null) {
+                found.put(id, local);
+                continue;
+            }
+            remoteIds.add(id);
+            remoteKeys.add(key);
+        }
+        cacheMetrics.record(keyPrefix, CacheMetrics.LOCAL_HIT, found.size());
+        if (remoteKeys.isEmpty()) {
+            return misses;
+        }
+        List<byte[]> values = byteRedisTemplate.opsForValue().multiGet(remoteKeys);
+        long now = System.currentTimeMillis();
+        int nullHits = 0;
+        for (int i = 0; i < remoteIds.size(); i++) {
+            ID id = remoteIds.get(i);
+            byte[] bytes = values == null ? null : values.get(i);
+            if (bytes == null) {
+                misses.add(id);
+                continue;
+            }
+            if (bytes.length == 0) {//缓存的空值
+                nullHits++;
+                continue;
+            }
+            CacheCodec codec = codecOf(bytes);
+            R r = codec.decode(bytes, type);
+            found.put(id, r);
+            if (expired != null && codec.expireTime(bytes) <= now) {
+                expired.add(id);
+            } else {
+                putLocal(keyPrefix, remoteKeys.get(i), r);
+            }
+        }
+        int stale = expired == null ? 0 : expired.size();
+        cacheMetrics.record(keyPrefix, CacheMetrics.HIT, remoteIds.size() - misses.size() - nullHits - stale);
+        cacheMetrics.record(keyPrefix, CacheMetrics.NULL_HIT, nullHits);
+        cacheMetrics.record(keyPrefix, CacheMetrics.STALE_HIT, stale);
+        cacheMetrics.record(keyPrefix, CacheMetrics.MISS, misses.size());
+        return misses;
+    }
+
+    //一次批量查询数据库 按id整理结果
+    private <R,ID> Map<ID,R> loadBatch(String keyPrefix, List<ID> ids,
+                                       Function<List<ID>,List<R>> batchDbFallback, Function<R,ID> idGetter) {
+        Map<ID,R> loaded = new HashMap<>();
+        for (R r : cacheMetrics.timeDbLoad(keyPrefix, () -> batchDbFallback.apply(ids))) {
+            loaded.put(idGetter.apply(r), r);
+        }
+        return loaded;
+    }
+
+    //一次pipeline写回Redis 数据库不存在的id写入空值 logical为true时写入逻辑过期时间和重建耗时 否则设置TTL
+    //返回写入了数据的key 由调用方决定是否通知本地缓存失效
+    private <R,ID> List<String> writeBatch(String keyPrefix, List<ID> ids, Map<ID,R> loaded, boolean logical,
+                                   Long time, TimeUnit unit, int rebuildCost) {
+        List<String> written = new ArrayList<>();
+        byteRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (ID id : ids) {
+                String key = keyPrefix + id;
+                byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+                R r = loaded.get(id);
+                if (r == null) {
+                    //对应键的值为空字符串 且设置较短的过期时间
+                    connection.stringCommands().set(rawKey, NULL_VALUE,
+                            Expiration.milliseconds(expiryPolicy.ttlMillis(key, RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES)),
+                            RedisStringCommands.SetOption.upsert());
+                    continue;
+                }
+                if (logical) {
+                    long expireTime = System.currentTimeMillis() + expiryPolicy.ttlMillis(key, time, unit);
+                    connection.stringCommands().set(rawKey, writeCodec.encode(r, expireTime, rebuildCost));
+                } else {
+                    connection.stringCommands().set(rawKey, writeCodec.encode(r, 0),
+                            Expiration.milliseconds(expiryPolicy.ttlMillis(key, time, unit)), RedisStringCommands.SetOption.upsert());
+                }
+                written.add(key);
+            }
+            return null;
+        });
+        return written;
+    }
+
+    //提交批量重建任务 只重建获取到互斥锁的key 其余key由其他线程或实例重建
+    private <R,ID> void rebuildBatch(String keyPrefix, List<ID> ids,
+                                     Function<List<ID>,List<R>> batchDbFallback, Function<R,ID> idGetter, Long time, TimeUnit unit) {
+        Map<String,ID> keyToId = new HashMap<>();
+        for (ID id : ids) {
+            keyToId.put(keyPrefix + id, id);
+        }
+        rebuildScheduler.submit(keyPrefix, keyToId.keySet(), lockedKeys -> {
+            List<ID> locked = lockedKeys.stream().map(keyToId::get).toList();
+            long start = System.currentTimeMillis();
+            Map<ID,R> loaded = loadBatch(keyPrefix, locked, batchDbFallback, idGetter);
+            nearCache.invalidateAll(writeBatch(keyPrefix, locked, loaded, true, time, unit, (int) (System.currentTimeMillis() - start)));
+        });
+    }
+
+    //按调用方的id顺序整理结果 不存在的数据跳过
+    private <R,ID> List<R> inOrder(List<ID> ids, Map<ID,R> found) {
+        List<R> result = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            R r = found.get(id);
+            if (r != null) {
+                result.add(r);
+            }
+        }
+        return result;
+    }
+
+    //等待同一JVM内leader线程的加载结果 最多等待一个锁的有效期
+    private Object awaitLoad(String key, CompletableFuture<Object> inFlight) {
+        try {
+            return inFlight.get(RedisConstants.LOCK_SHOP_TTL, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new RuntimeException("等待缓存重建超时:" + key, e);
+        }
+    }
+
+    //查询数据库 并统计耗时
+    private <R,ID> R loadFromDb(String keyPrefix, ID id, Function<ID,R> dbFallback) {
+        return cacheMetrics.timeDbLoad(keyPrefix, () -> dbFallback.apply(id));
+    }
+
+    //写入本地缓存 开启了本地缓存的前缀直接写入 热点key额外写入短期副本
+    void putLocal(String keyPrefix, String key, Object r) {
+        nearCache.put(keyPrefix, key, r);
+        if (hotKeyDetector.isHot(key)) {
+            nearCache.putHot(key, r);
+        }
+    }
+
+    //判断是否需要重建缓存(XFetch)：now - rebuildCost * beta * ln(random) >= expireTime
+    //ln(random)为负数 相当于把当前时间随机向后推移 推移量与重建耗时成正比 beta为0时即判断是否已经过期
+    boolean shouldRefresh(long expireTime, int rebuildCost, double beta) {
+        long now = System.currentTimeMillis();
+        if (beta <= 0 || rebuildCost <= 0) {
+            return now >= expireTime;
+        }
+        double random = 1 - ThreadLocalRandom.current().nextDouble();//(0,1] 避免ln(0)
+        return now - rebuildCost * beta * Math.log(random) >= expireTime;
+    }
+
+    //根据数据头选择编解码器 兼容迁移前写入的JSON数据
+    CacheCodec codecOf(byte[] bytes) {
+        for (CacheCodec codec : codecs) {
+            if (codec.supports(bytes)) {
+                return codec;
+            }
+        }
+        throw new IllegalStateException("无法识别的缓存数据格式");
     }
 
     //获取互斥锁，解决缓存击穿 原理为Redis的SETNX操作:若给定的 key 已经存在，则 SETNX 不做任何动作。
-    private boolean tryLock(String key) {
-        //设置一个值看是否成功  SETNX对应java中的setIfAbsent
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, RedisConstants.LOCK_SHOP_value, RedisConstants.LOCK_SHOP_TTL, TimeUnit.SECONDS);
+    private boolean tryLock(String key, String owner) {
+        //设置一个值看是否成功  SETNX对应java中的setIfAbsent 值为持有者标识
+        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, owner, RedisConstants.LOCK_SHOP_TTL, TimeUnit.SECONDS);
         return BooleanUtil.isTrue(flag);//使用工具类判断，防止出现空指针异常
     }
 
-    //释放互斥锁，解决缓存击穿 原理为Redis的DEL操作
-    private void unLock(String key) {
-        stringRedisTemplate.delete(key);
+    //释放互斥锁 lua脚本中比较持有者标识后再DEL 不会误删其他实例在锁过期后获得的锁
+    private void unLock(String key, String owner) {
+        stringRedisTemplate.execute(SimpleRedisLock.UNLOCK_SCRIPT, Collections.singletonList(key), owner);
     }
 }
@@ -0,0 +1,32 @@
+package com.hmdp.utils;
+
+/**
+ * ErenMikasa
+ * Date 2024/10/22
+ */
+//缓存值的编解码器 CacheClient通过它读写Redis中的缓存数据
+//读取时根据数据头判断格式 因此新旧格式可以共存 写入时使用配置的编解码器
+public interface CacheCodec {
+
+    String name();//编解码器名称 对应配置hmdp.cache.codec
+
+    //编码 expireTime为逻辑过期的毫秒时间戳 0表示不设置逻辑过期 rebuildCost为上次重建缓存的耗时(毫秒) 用于提前刷新
+    byte[] encode(Object value, long expireTime, int rebuildCost);
+
+    default byte[] encode(Object value, long expireTime) {
+        return encode(value, expireTime, 0);
+    }
+
+    boolean supports(byte[] bytes);//是否为本编解码器写入的数据
+
+    long expireTime(byte[] bytes);//只读取逻辑过期时间 不反序列化数据本身 没有逻辑过期返回0
+
+    int rebuildCost(byte[] bytes);//只读取重建耗时 没有记录返回0
+
+    <R> R decode(byte[] bytes, Class<R> type);//反序列化为指定类型
+
+    //不反序列化 直接取出数据部分的JSON 只有格式与接口返回一致时才支持 不支持返回null
+    default RawJson rawJson(byte[] bytes) {
+        return null;
+    }
+}
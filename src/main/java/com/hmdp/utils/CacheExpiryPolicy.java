@@ -0,0 +1,95 @@
+package com.hmdp.utils;
+
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ErenMikasa
+ * Date 2024/10/22
+ */
+//缓存过期策略 为TTL和逻辑过期时间加上随机偏移 防止批量写入的缓存在同一时刻过期(缓存雪崩)
+//偏移量为TTL的一定比例 可按key前缀单独配置 同时按过期时间段统计本实例的写入次数
+//统计的是写入速率而不是存活的缓存数：覆盖写入和删除不会扣减 其他实例的写入也不在其中
+//用于观察写入的过期时间是否集中在同一时间段 不能用来估算某一时刻实际会过期多少缓存
+@Setter
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache.expiry")
+public class CacheExpiryPolicy {
+
+    private double jitter = 0.1;//默认偏移比例 实际TTL在[TTL, TTL*(1+jitter)]之间随机
+
+    private Map<String, Double> prefixJitter = new HashMap<>();//key前缀 -> 偏移比例
+
+    private long bucketSeconds = 60;//过期时间统计的时间段长度
+
+    //key前缀 -> (过期时间段开始的毫秒时间戳 -> 过期时间落在该时间段的写入次数)
+    private final Map<String, ConcurrentSkipListMap<Long, LongAdder>> writes = new ConcurrentHashMap<>();
+
+    /**
+     * Description  计算加上随机偏移后的TTL 并按过期时间段记录一次写入
+     * @param: key 缓存中的key 用于确定前缀
+     * @param: time TTL
+     * @param: unit TTL单位
+     * return long 加上偏移后的TTL(毫秒)
+     */
+    public long ttlMillis(String key, Long time, TimeUnit unit) {
+        long millis = unit.toMillis(time);
+        String prefix = prefixOf(key);
+        double ratio = prefixJitter.getOrDefault(prefix, jitter);
+        if (ratio > 0) {
+            millis += ThreadLocalRandom.current().nextLong((long) (millis * ratio) + 1);
+        }
+        record(prefix, System.currentTimeMillis() + millis);
+        return millis;
+    }
+
+    //各前缀的写入按过期时间段的分布(只保留尚未到达的时间段) 时间段开始时间 -> 写入次数
+    public Map<String, Map<String, Long>> writeHistogram() {
+        long now = bucketOf(System.currentTimeMillis());
+        Map<String, Map<String, Long>> result = new TreeMap<>();
+        writes.forEach((prefix, buckets) -> {
+            buckets.headMap(now).clear();
+            Map<String, Long> counts = new LinkedHashMap<>();
+            buckets.forEach((bucket, count) -> counts.put(
+                    LocalDateTime.ofInstant(Instant.ofEpochMilli(bucket), ZoneId.systemDefault()).toString(), count.sum()));
+            result.put(prefix, counts);
+        });
+        return result;
+    }
+
+    private void record(String prefix, long expireAt) {
+        ConcurrentSkipListMap<Long, LongAdder> buckets = writes.computeIfAbsent(prefix, p -> new ConcurrentSkipListMap<>());
+        buckets.computeIfAbsent(bucketOf(expireAt), b -> new LongAdder()).increment();
+        buckets.headMap(bucketOf(System.currentTimeMillis())).clear();//清理已经过去的时间段
+    }
+
+    private long bucketOf(long millis) {
+        long bucketMillis = TimeUnit.SECONDS.toMillis(bucketSeconds);
+        return millis - millis % bucketMillis;
+    }
+
+    //优先匹配配置了偏移比例的前缀 否则取最后一个冒号之前的部分 例如 cache:shop:1 -> cache:shop:
+    private String prefixOf(String key) {
+        for (String prefix : prefixJitter.keySet()) {
+            if (key.startsWith(prefix)) {
+                return prefix;
+            }
+        }
+        int index = key.lastIndexOf(':');
+        return index < 0 ? key : key.substring(0, index + 1);
+    }
+}
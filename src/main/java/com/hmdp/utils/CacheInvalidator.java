@@ -0,0 +1,149 @@
+package com.hmdp.utils;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cglib.core.internal.Function;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ErenMikasa
+ * Date 2024/10/22
+ */
+//缓存失效 更新数据库后删除缓存
+//在事务中调用时 删除操作登记到事务提交之后执行 防止提交前其他请求读到旧数据并重新写入缓存
+//同一事务内登记的所有key在提交后一次批量删除；可选延迟双删：提交后一段时间再删除一次 清理并发读请求写回的旧数据
+//逻辑过期的缓存未命中时直接返回空 不会查询数据库 不能删除 改为提交后用数据库中的新数据重新写入(延迟后再写入一次)
+@Slf4j
+@Component
+public class CacheInvalidator {
+
+    private final CacheClient cacheClient;
+
+    private final long doubleDeleteDelay;//延迟双删的间隔(毫秒) 0表示不进行第二次删除
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "cache-double-delete");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public CacheInvalidator(CacheClient cacheClient,
+                            @Value("${hmdp.cache.invalidation.double-delete-delay:500}") long doubleDeleteDelay) {
+        this.cacheClient = cacheClient;
+        this.doubleDeleteDelay = doubleDeleteDelay;
+    }
+
+    public void evictAfterCommit(String... keys) {
+        evictAfterCommit(List.of(keys));
+    }
+
+    /**
+     * Description  删除缓存 有事务时在事务提交后批量删除 没有事务时立即删除
+     * @param: keys 缓存中的key集合
+     * return void
+     */
+    public void evictAfterCommit(Collection<String> keys) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            evict(new ArrayList<>(keys));
+            return;
+        }
+        //同一事务内的key合并到一个集合 提交后一次删除
+        @SuppressWarnings("unchecked")
+        Set<String> pending = (Set<String>) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            Set<String> registered = new LinkedHashSet<>();
+            TransactionSynchronizationManager.bindResource(this, registered);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict(new ArrayList<>(registered));
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(CacheInvalidator.this);
+                }
+            });
+            pending = registered;
+        }
+        pending.addAll(keys);
+    }
+
+    /**
+     * Description  用数据库中的最新数据重写逻辑过期的缓存 有事务时在事务提交后执行 没有事务时立即执行
+     *              数据库中已不存在时删除缓存 开启延迟双删时 延迟后再重写一次 覆盖并发重建写回的旧数据
+     * @param: keyPrefix 缓存中key的前缀
+     * @param: id 数据的id 用于拼接缓存key
+     * @param: dbFallback 查询数据库的函数
+     * @param: time 逻辑过期时间
+     * @param: unit 逻辑过期时间单位
+     * return void
+     */
+    public <R,ID> void refreshAfterCommit(String keyPrefix, ID id, Function<ID,R> dbFallback, Long time, TimeUnit unit) {
+        Runnable refresh = () -> {
+            String key = keyPrefix + id;
+            R r = dbFallback.apply(id);
+            if (r == null) {
+                cacheClient.delete(key);
+            } else {
+                cacheClient.setWithLogicalExpire(key, r, time, unit);
+            }
+        };
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            refresh(refresh);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                refresh(refresh);
+            }
+        });
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        scheduler.shutdown();
+    }
+
+    private void refresh(Runnable refresh) {
+        refresh.run();
+        if (doubleDeleteDelay > 0) {
+            scheduler.schedule(() -> {
+                try {
+                    refresh.run();
+                } catch (Exception e) {
+                    log.error("延迟重写缓存失败", e);
+                }
+            }, doubleDeleteDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void evict(List<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        cacheClient.deleteAll(keys);
+        if (doubleDeleteDelay > 0) {
+            scheduler.schedule(() -> {
+                try {
+                    cacheClient.deleteAll(keys);
+                } catch (Exception e) {
+                    log.error("延迟双删失败:{}", keys, e);
+                }
+            }, doubleDeleteDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * ErenMikasa
+ * Date 2024/10/22
+ */
+//CacheClient的监控指标 均以key前缀为标签 通过/actuator/metrics查看
+//  cache.requests      查询结果计数 result标签区分本地命中/命中/空值命中/过期命中/未命中/布隆过滤器拦截
+//  cache.query         查询耗时 strategy标签区分查询方式
+//  cache.db.load       dbFallback查询数据库耗时
+//  cache.lock.contention 获取重建互斥锁失败次数
+@Component
+public class CacheMetrics {
+
+    public static final String LOCAL_HIT = "local_hit";//本地缓存命中
+    public static final String HIT = "hit";//Redis命中
+    public static final String NULL_HIT = "null_hit";//命中缓存的空值
+    public static final String STALE_HIT = "stale_hit";//命中已逻辑过期的数据
+    public static final String MISS = "miss";//缓存中不存在
+    public static final String BLOOM_REJECT = "bloom_reject";//布隆过滤器判断不存在
+
+    private final MeterRegistry meterRegistry;
+
+    //指标对象缓存 避免每次查询都到注册表中查找
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    public CacheMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    //记录查询结果
+    public void record(String keyPrefix, String result) {
+        record(keyPrefix, result, 1);
+    }
+
+    public void record(String keyPrefix, String result, int count) {
+        if (count <= 0) {
+            return;
+        }
+        counters.computeIfAbsent("cache.requests|" + keyPrefix + "|" + result, k -> Counter.builder("cache.requests")
+                .description("缓存查询结果")
+                .tag("prefix", keyPrefix)
+                .tag("result", result)
+                .register(meterRegistry)).increment(count);
+    }
+
+    //记录获取重建互斥锁失败
+    public void lockContention(String keyPrefix) {
+        counters.computeIfAbsent("cache.lock.contention|" + keyPrefix, k -> Counter.builder("cache.lock.contention")
+                .description("获取缓存重建互斥锁失败次数")
+                .tag("prefix", keyPrefix)
+                .register(meterRegistry)).increment();
+    }
+
+    //统计一次查询的耗时
+    public <T> T timeQuery(String keyPrefix, String strategy, Supplier<T> query) {
+        return time("cache.query", "缓存查询耗时", keyPrefix, strategy, query);
+    }
+
+    //统计一次异步查询的耗时 在结果完成时记录
+    public <T> CompletableFuture<T> timeQueryAsync(String keyPrefix, String strategy, Supplier<CompletableFuture<T>> query) {
+        long start = System.nanoTime();
+        return query.get().whenComplete((r, e) -> timer("cache.query", "缓存查询耗时", keyPrefix, strategy)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+    }
+
+    //统计一次查询数据库的耗时
+    public <T> T timeDbLoad(String keyPrefix, Supplier<T> load) {
+        return time("cache.db.load", "缓存未命中时查询数据库耗时", keyPrefix, null, load);
+    }
+
+    private <T> T time(String name, String description, String keyPrefix, String strategy, Supplier<T> supplier) {
+        long start = System.nanoTime();
+        try {
+            return supplier.get();
+        } finally {
+            timer(name, description, keyPrefix, strategy).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Timer timer(String name, String description, String keyPrefix, String strategy) {
+        return timers.computeIfAbsent(name + "|" + keyPrefix + "|" + strategy, k -> {
+            Timer.Builder builder = Timer.builder(name)
+                    .description(description)
+                    .tag("prefix", keyPrefix)
+                    .publishPercentileHistogram();
+            if (strategy != null) {
+                builder.tag("strategy", strategy);
+            }
+            return builder.register(meterRegistry);
+        });
+    }
+}
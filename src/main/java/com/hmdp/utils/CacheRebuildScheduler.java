@@ -0,0 +1,201 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.BooleanUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * ErenMikasa
+ * Date 2024/10/22
+ */
+//缓存重建调度器 逻辑过期/提前刷新的异步重建统一由这里执行
+//  1.有界队列 队列满时丢弃最旧的任务(被丢弃的key下次读取时会重新提交) 数据库变慢时任务不会无限堆积
+//  2.同一个key在本JVM内同时只会有一个重建任务(排队中或执行中)
+//  3.执行前按缓存key获取分布式互斥锁 锁key由缓存key派生 不同业务的缓存互不干扰
+//  4.通过Micrometer暴露队列长度、丢弃次数和重建耗时 获取锁失败计入CacheMetrics
+@Slf4j
+@Component
+public class CacheRebuildScheduler {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final MeterRegistry meterRegistry;
+
+    private final CacheMetrics cacheMetrics;
+
+    private final ThreadPoolExecutor executor;
+
+    //排队中或执行中的缓存key 用于去重
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    private final Counter dropped;
+
+    public CacheRebuildScheduler(StringRedisTemplate stringRedisTemplate, MeterRegistry meterRegistry, CacheMetrics cacheMetrics) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.meterRegistry = meterRegistry;
+        this.cacheMetrics = cacheMetrics;
+        AtomicInteger threadId = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+                RedisConstants.CACHE_REBUILD_THREADS, RedisConstants.CACHE_REBUILD_THREADS,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(RedisConstants.CACHE_REBUILD_QUEUE_SIZE),
+                r -> new Thread(r, "cache-rebuild-" + threadId.incrementAndGet()),
+                this::dropOldest);
+        Gauge.builder("cache.rebuild.queue", executor, e -> e.getQueue().size())
+                .description("排队中的缓存重建任务数")
+                .register(meterRegistry);
+        Gauge.builder("cache.rebuild.pending", pending, Set::size)
+                .description("排队中或执行中的缓存key数")
+                .register(meterRegistry);
+        this.dropped = Counter.builder("cache.rebuild.dropped")
+                .description("队列已满被丢弃的缓存重建任务数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Description  提交单个缓存key的重建任务 该key已在排队或执行中时直接忽略
+     * @param: keyPrefix 缓存中key的前缀 用作耗时指标的标签
+     * @param: key 缓存中的key
+     * @param: rebuild 重建缓存的任务 只有获取到互斥锁时才会执行
+     * return void
+     */
+    public void submit(String keyPrefix, String key, Runnable rebuild) {
+        submit(keyPrefix, List.of(key), locked -> rebuild.run());
+    }
+
+    /**
+     * Description  提交一批缓存key的重建任务 已在排队或执行中的key会被过滤掉
+     * @param: keyPrefix 缓存中key的前缀 用作耗时指标的标签
+     * @param: keys 缓存中的key集合
+     * @param: rebuild 重建缓存的任务 参数为获取到互斥锁的key 全部获取失败时不执行
+     * return void
+     */
+    public void submit(String keyPrefix, Collection<String> keys, Consumer<List<String>> rebuild) {
+        List<String> accepted = new ArrayList<>();
+        for (String key : keys) {
+            if (pending.add(key)) {
+                accepted.add(key);
+            }
+        }
+        if (accepted.isEmpty()) {
+            return;
+        }
+        try {
+            executor.execute(new RebuildTask(keyPrefix, accepted, rebuild));
+        } catch (RuntimeException e) {
+            //线程池已关闭
+            pending.removeAll(accepted);
+            throw e;
+        }
+    }
+
+    //由缓存key派生互斥锁key 例如 cache:shop:1 -> lock:cache:shop:1
+    public static String lockKey(String key) {
+        return RedisConstants.CACHE_LOCK_KEY + key;
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdown();
+    }
+
+    //队列已满 丢弃最旧的任务后重新提交当前任务
+    private void dropOldest(Runnable r, ThreadPoolExecutor e) {
+        if (e.isShutdown()) {
+            if (r instanceof RebuildTask task) {
+                task.release();
+            }
+            return;
+        }
+        Runnable oldest = e.getQueue().poll();
+        if (oldest instanceof RebuildTask task) {
+            task.release();
+            dropped.increment();
+            log.warn("缓存重建队列已满，丢弃任务:{}", task.keys);
+        }
+        e.execute(r);
+    }
+
+    private class RebuildTask implements Runnable {
+
+        private final String keyPrefix;
+
+        private final List<String> keys;
+
+        private final Consumer<List<String>> rebuild;
+
+        RebuildTask(String keyPrefix, List<String> keys, Consumer<List<String>> rebuild) {
+            this.keyPrefix = keyPrefix;
+            this.keys = keys;
+            this.rebuild = rebuild;
+        }
+
+        @Override
+        public void run() {
+            List<String> locked = new ArrayList<>();
+            String owner = UUID.fastUUID().toString(true);//本次重建持有的锁的标识
+            try {
+                //获取互斥锁 其他实例正在重建的key跳过
+                for (String key : keys) {
+                    if (tryLock(lockKey(key), owner)) {
+                        locked.add(key);
+                    } else {
+                        cacheMetrics.lockContention(keyPrefix);
+                    }
+                }
+                if (locked.isEmpty()) {
+                    return;
+                }
+                long start = System.nanoTime();
+                rebuild.accept(locked);
+                Timer.builder("cache.rebuild.latency")
+                        .description("缓存重建耗时")
+                        .tag("prefix", keyPrefix)
+                        .register(meterRegistry)
+                        .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            } catch (Exception e) {
+                log.error("缓存重建失败:{}", keys, e);
+            } finally {
+                //释放锁 只释放自己持有的锁
+                for (String key : locked) {
+                    unLock(lockKey(key), owner);
+                }
+                release();
+            }
+        }
+
+        //任务结束或被丢弃 允许这些key再次提交
+        void release() {
+            pending.removeAll(keys);
+        }
+    }
+
+    private boolean tryLock(String key, String owner) {
+        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, owner, RedisConstants.LOCK_SHOP_TTL, TimeUnit.SECONDS);
+        return BooleanUtil.isTrue(flag);
+    }
+
+    //比较持有者标识后再删除 重建耗时超过锁的有效期时不会误删其他实例的锁
+    private void unLock(String key, String owner) {
+        stringRedisTemplate.execute(SimpleRedisLock.UNLOCK_SCRIPT, Collections.singletonList(key), owner);
+    }
+}
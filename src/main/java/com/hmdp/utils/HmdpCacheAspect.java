@@ -0,0 +1,95 @@
+package com.hmdp.utils;
+
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.cglib.core.internal.Function;
+import org.springframework.context.expression.MethodBasedEvaluationContext;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.StringUtils;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ErenMikasa
+ * Date 2024/10/22
+ */
+//@HmdpCached/@HmdpEvict的切面 把缓存逻辑统一交给CacheClient 业务方法只需要写数据库查询
+//未命中时执行原方法加载数据 逻辑过期策略下原方法会在重建线程中执行 因此不能依赖UserHolder等线程变量
+@Aspect
+@Component
+public class HmdpCacheAspect {
+
+    private final CacheClient cacheClient;
+
+    private final CacheInvalidator cacheInvalidator;
+
+    private final SpelExpressionParser parser = new SpelExpressionParser();
+
+    private final ParameterNameDiscoverer parameterNameDiscoverer = new DefaultParameterNameDiscoverer();
+
+    //解析后的key表达式 避免每次调用都重新解析
+    private final Map<String, Expression> expressions = new ConcurrentHashMap<>();
+
+    public HmdpCacheAspect(CacheClient cacheClient, CacheInvalidator cacheInvalidator) {
+        this.cacheClient = cacheClient;
+        this.cacheInvalidator = cacheInvalidator;
+    }
+
+    @Around("@annotation(cached)")
+    public Object cached(ProceedingJoinPoint pjp, HmdpCached cached) {
+        Object id = resolveKey(pjp, cached.key());
+        @SuppressWarnings("unchecked")
+        Class<Object> type = (Class<Object>) ClassUtils.resolvePrimitiveIfNecessary(
+                ((MethodSignature) pjp.getSignature()).getReturnType());
+        //未命中时执行原方法
+        Function<Object, Object> dbFallback = ignored -> proceed(pjp);
+        Long ttl = cached.ttl();
+        return switch (cached.strategy()) {
+            case PASS_THROUGH -> cacheClient.queryWithPassThrough(cached.prefix(), id, type, dbFallback, ttl, cached.unit());
+            case MUTEX -> cacheClient.queryWithMutex(cached.prefix(), id, type, dbFallback, ttl, cached.unit());
+            case LOGICAL_EXPIRE -> cacheClient.queryWithLogicalExpire(cached.prefix(), id, type, dbFallback, ttl, cached.unit());
+        };
+    }
+
+    @AfterReturning("@annotation(evict)")
+    public void evict(JoinPoint jp, HmdpEvict evict) {
+        Object id = resolveKey(jp, evict.key());
+        if (id != null) {
+            cacheInvalidator.evictAfterCommit(evict.prefix() + id);
+        }
+    }
+
+    //计算缓存key中的id 表达式为空时取第一个参数
+    private Object resolveKey(JoinPoint jp, String key) {
+        Object[] args = jp.getArgs();
+        if (!StringUtils.hasText(key)) {
+            return args.length > 0 ? args[0] : null;
+        }
+        Method method = ((MethodSignature) jp.getSignature()).getMethod();
+        MethodBasedEvaluationContext context =
+                new MethodBasedEvaluationContext(null, method, args, parameterNameDiscoverer);
+        return expressions.computeIfAbsent(key, parser::parseExpression).getValue(context);
+    }
+
+    //执行原方法 受检异常包装后抛出
+    private static Object proceed(ProceedingJoinPoint pjp) {
+        try {
+            return pjp.proceed();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
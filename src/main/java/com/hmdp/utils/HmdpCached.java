@@ -0,0 +1,41 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ErenMikasa
+ * Date 2024/10/22
+ */
+//标注在service方法上 由HmdpCacheAspect按指定策略通过CacheClient查询缓存 未命中时执行原方法作为数据库查询
+//缓存key = prefix + key表达式的值 方法返回值类型即缓存对象类型 返回null时按不存在处理(缓存空值)
+//注意：同一个类内部直接调用不会经过切面 需要通过AopContext.currentProxy()调用
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface HmdpCached {
+
+    //缓存中key的前缀
+    String prefix();
+
+    //SpEL表达式 计算拼接在前缀后的id 例如"#p0.shopId" 为空时使用第一个参数
+    String key() default "";
+
+    //解决缓存击穿的策略
+    Strategy strategy() default Strategy.PASS_THROUGH;
+
+    //过期时间 逻辑过期策略下为逻辑过期时间
+    long ttl();
+
+    TimeUnit unit() default TimeUnit.MINUTES;
+
+    enum Strategy {
+        PASS_THROUGH,//缓存空值 对应CacheClient.queryWithPassThrough
+        MUTEX,//互斥锁 对应CacheClient.queryWithMutex
+        LOGICAL_EXPIRE//逻辑过期 对应CacheClient.queryWithLogicalExpire 缓存需要提前预热 未命中时返回null
+    }
+}
@@ -0,0 +1,25 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * ErenMikasa
+ * Date 2024/10/22
+ */
+//标注在修改数据的service方法上 方法正常返回后由HmdpCacheAspect删除对应的缓存
+//在事务中执行时删除登记到事务提交之后(见CacheInvalidator)
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface HmdpEvict {
+
+    //缓存中key的前缀 与@HmdpCached的prefix一致
+    String prefix();
+
+    //SpEL表达式 计算拼接在前缀后的id 例如"#p0.shopId" 为空时使用第一个参数
+    String key() default "";
+}
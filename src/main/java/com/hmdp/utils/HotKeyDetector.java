@@ -0,0 +1,111 @@
+package com.hmdp.utils;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * ErenMikasa
+ * Date 2024/10/22
+ */
+//热点key探测 对缓存key的访问按比例抽样 用Count-Min Sketch计数
+//滑动窗口由两个半窗口组成：当前半窗口和上一个半窗口 估计值为两者之和 每过半个窗口轮换一次
+//估计的访问次数超过阈值的key被判定为热点 由CacheClient复制到进程内的短期副本 减少对Redis单个key的访问
+@Component
+public class HotKeyDetector {
+
+    private static final int DEPTH = 4;//哈希函数个数
+    private static final int WIDTH = 1 << 12;//每行计数器个数 必须为2的幂
+
+    private final long halfWindowMillis = RedisConstants.HOT_KEY_WINDOW * 1000 / 2;
+
+    private volatile AtomicIntegerArray current = new AtomicIntegerArray(DEPTH * WIDTH);
+    private volatile AtomicIntegerArray previous = new AtomicIntegerArray(DEPTH * WIDTH);
+    private volatile long rotateAt = System.currentTimeMillis() + halfWindowMillis;
+
+    //当前的热点key -> 最近一次判定时估计的窗口内访问次数
+    private final Map<String, Long> hotKeys = new ConcurrentHashMap<>();
+
+    /**
+     * Description  记录一次访问 按抽样率计数
+     * @param: key 缓存中的key
+     * return void
+     */
+    public void record(String key) {
+        rotateIfNeeded();
+        if (ThreadLocalRandom.current().nextInt(RedisConstants.HOT_KEY_SAMPLE_RATE) != 0) {
+            return;
+        }
+        int hash = key.hashCode();
+        AtomicIntegerArray sketch = current;
+        for (int i = 0; i < DEPTH; i++) {
+            sketch.incrementAndGet(index(hash, i));
+        }
+        long count = estimate(key);
+        if (count >= RedisConstants.HOT_KEY_THRESHOLD) {
+            hotKeys.put(key, count);
+        }
+    }
+
+    //是否为热点key
+    public boolean isHot(String key) {
+        return hotKeys.containsKey(key);
+    }
+
+    //当前所有热点key及其估计的窗口内访问次数 按key排序
+    public Map<String, Long> hotKeys() {
+        return new TreeMap<>(hotKeys);
+    }
+
+    //估计滑动窗口内的访问次数(已按抽样率还原)
+    private long estimate(String key) {
+        int hash = key.hashCode();
+        AtomicIntegerArray cur = current;
+        AtomicIntegerArray prev = previous;
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = index(hash, i);
+            min = Math.min(min, (long) cur.get(index) + prev.get(index));
+        }
+        return min * RedisConstants.HOT_KEY_SAMPLE_RATE;
+    }
+
+    //每过半个窗口轮换一次 并移除已经不热的key
+    private void rotateIfNeeded() {
+        long now = System.currentTimeMillis();
+        if (now < rotateAt) {
+            return;
+        }
+        synchronized (this) {
+            if (now < rotateAt) {
+                return;
+            }
+            previous = current;
+            current = new AtomicIntegerArray(DEPTH * WIDTH);
+            rotateAt = now + halfWindowMillis;
+        }
+        Set<String> keys = hotKeys.keySet();
+        for (String key : keys) {
+            long count = estimate(key);
+            if (count < RedisConstants.HOT_KEY_THRESHOLD) {
+                hotKeys.remove(key);
+            } else {
+                hotKeys.put(key, count);
+            }
+        }
+    }
+
+    //第i个哈希函数 对key的哈希值再做一次扰动
+    private static int index(int hash, int i) {
+        int h = hash + i * 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return i * WIDTH + (h & (WIDTH - 1));
+    }
+}
@@ -0,0 +1,63 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSON;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * ErenMikasa
+ * Date 2024/10/22
+ */
+//原有的JSON格式：逻辑过期的数据存为RedisData的JSON 其余数据直接存为对象的JSON
+//保留用于兼容旧数据 以及新旧版本滚动发布期间的写入 不记录重建耗时(提前刷新退化为普通的逻辑过期)
+@Component
+public class JsonCacheCodec implements CacheCodec {
+
+    @Override
+    public String name() {
+        return "json";
+    }
+
+    @Override
+    public byte[] encode(Object value, long expireTime, int rebuildCost) {
+        if (expireTime <= 0) {
+            return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+        }
+        //逻辑过期 封装为RedisData
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(expireTime), ZoneId.systemDefault());
+        return JSONUtil.toJsonStr(new RedisData(time, value)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean supports(byte[] bytes) {
+        return bytes.length > 0 && (bytes[0] == '{' || bytes[0] == '[');
+    }
+
+    @Override
+    public long expireTime(byte[] bytes) {
+        RedisData redisData = JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), RedisData.class);
+        LocalDateTime expireTime = redisData.getExpireTime();
+        return expireTime == null ? 0 : expireTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    @Override
+    public int rebuildCost(byte[] bytes) {
+        return 0;
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        JSON json = JSONUtil.parse(new String(bytes, StandardCharsets.UTF_8));
+        //逻辑过期的数据 取出其中的data再转换
+        if (json instanceof JSONObject redisData && redisData.containsKey("expireTime") && redisData.containsKey("data")) {
+            json = (JSON) redisData.get("data");
+        }
+        return json.toBean(type);
+    }
+}
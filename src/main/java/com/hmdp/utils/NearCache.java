@@ -0,0 +1,114 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.Cache;
+import cn.hutool.cache.CacheUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ErenMikasa
+ * Date 2024/10/22
+ */
+//进程内一级缓存(L1) 按key前缀保存反序列化后的对象 容量+TTL双重淘汰
+//缓存更新/删除时通过Redis发布订阅通知所有实例删除本地缓存 保证各实例L1一致
+@Slf4j
+@Component
+public class NearCache implements MessageListener {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    //key前缀 -> 本地缓存 只有开启了本地缓存的前缀才会存放
+    private final Map<String, Cache<String, Object>> caches = new ConcurrentHashMap<>();
+
+    //热点key的短期副本 不论前缀是否开启本地缓存 由HotKeyDetector判定后写入
+    private final Cache<String, Object> hotReplicas = CacheUtil.newLRUCache(RedisConstants.HOT_KEY_LOCAL_SIZE,
+            TimeUnit.SECONDS.toMillis(RedisConstants.HOT_KEY_LOCAL_TTL));
+
+    public NearCache(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * Description  为指定key前缀开启本地缓存
+     * @param: keyPrefix 缓存中key的前缀
+     * @param: capacity 本地最多缓存的key数量 超出后按LRU淘汰
+     * @param: ttl 本地缓存的存活时间 兜底发布订阅消息丢失的情况
+     * @param: unit 存活时间单位
+     * return void
+     */
+    public void enable(String keyPrefix, int capacity, Long ttl, TimeUnit unit) {
+        caches.put(keyPrefix, CacheUtil.newLRUCache(capacity, unit.toMillis(ttl)));
+    }
+
+    //查询本地缓存 先查前缀对应的本地缓存 再查热点副本 都未命中返回null
+    public <R> R get(String keyPrefix, String key, Class<R> type) {
+        Cache<String, Object> cache = caches.get(keyPrefix);
+        Object value = cache == null ? null : cache.get(key, false);
+        if (value == null) {
+            value = hotReplicas.get(key, false);
+        }
+        return type.isInstance(value) ? type.cast(value) : null;
+    }
+
+    //写入本地缓存 空值不缓存(防止不存在的数据长期占用本地内存)
+    public void put(String keyPrefix, String key, Object value) {
+        Cache<String, Object> cache = caches.get(keyPrefix);
+        if (cache == null || value == null) {
+            return;
+        }
+        cache.put(key, value);
+    }
+
+    //写入热点副本 存活时间较短 失效通知同样会删除
+    public void putHot(String key, Object value) {
+        if (value != null) {
+            hotReplicas.put(key, value);
+        }
+    }
+
+    //通知所有实例(包括自己)删除指定key的本地缓存
+    public void invalidate(String key) {
+        evict(key);
+        stringRedisTemplate.convertAndSend(RedisConstants.CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    //批量通知所有实例删除本地缓存 所有消息在一次pipeline中发布
+    public void invalidateAll(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        keys.forEach(this::evict);
+        byte[] channel = RedisConstants.CACHE_INVALIDATE_CHANNEL.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                connection.publish(channel, key.getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+    }
+
+    //收到其他实例的失效通知 删除本地缓存
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        evict(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    private void evict(String key) {
+        hotReplicas.remove(key);
+        caches.forEach((keyPrefix, cache) -> {
+            if (key.startsWith(keyPrefix)) {
+                cache.remove(key);
+            }
+        });
+    }
+}
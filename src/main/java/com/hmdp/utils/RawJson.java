@@ -0,0 +1,66 @@
+package com.hmdp.utils;
+
+import net.jpountz.xxhash.XXHash64;
+import net.jpountz.xxhash.XXHashFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * ErenMikasa
+ * Date 2024/10/22
+ */
+//已经序列化好的JSON 直接引用缓存数据中的一段字节 不复制、不反序列化
+//不可变 可以放入本地缓存被多个请求共享
+public final class RawJson {
+
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.UTF_8);
+
+    private static final XXHash64 HASH = XXHashFactory.fastestInstance().hash64();
+
+    private final byte[] bytes;
+    private final int offset;
+    private final int length;
+
+    public RawJson(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public static RawJson of(byte[] bytes) {
+        return new RawJson(bytes, 0, bytes.length);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    //是否为JSON的null 即缓存的是不存在的数据
+    public boolean isNull() {
+        if (length != NULL.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (bytes[offset + i] != NULL[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //根据内容计算的ETag 内容不变ETag就不变 各实例计算结果一致
+    public String etag() {
+        return Long.toHexString(HASH.hash(bytes, offset, length, 0));
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, offset, length);
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,277 @@
+package com.hmdp.utils;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * ErenMikasa
+ * Date 2024/10/22
+ */
+//布隆过滤器 解决缓存穿透：不存在的id直接拒绝 不再访问Redis和数据库
+//数据以bitmap的形式保存在Redis中(各实例共享) 同时在本地保存一份镜像 判断时不需要访问Redis
+//bitmap旁边有一个初始化标记 只有用全部id初始化过的bitmap才会被加载 值为版本号 每次添加id递增
+//  1.标记不存在(例如Redis数据丢失后只有add写入了少量bit) 用全部id重新初始化 已写入的bit合并保留 不会出现误判为不存在
+//  2.新增id通过发布订阅通知其他实例 通知可能丢失 各实例定期比较版本号 有变化时重新从Redis加载镜像
+@Slf4j
+@Component
+public class RedisBloomFilter implements MessageListener {
+
+    //bitmap的位数 2^25位即4MB 百万级数据误判率约0.1%
+    private static final int BIT_SIZE = 1 << 25;
+    //哈希函数的个数
+    private static final int HASH_COUNT = 5;
+
+    //初始化bitmap 合并已有的bit
+    public static final DefaultRedisScript<Long> SEED_SCRIPT;
+    //添加id 返回新的版本号 未初始化时返回-1
+    public static final DefaultRedisScript<Long> ADD_SCRIPT;
+    static {
+        SEED_SCRIPT = new DefaultRedisScript<>();
+        SEED_SCRIPT.setLocation(new ClassPathResource("bloomSeed.lua"));//resources资源夹下脚本文件
+        SEED_SCRIPT.setResultType(Long.class);
+        ADD_SCRIPT = new DefaultRedisScript<>();
+        ADD_SCRIPT.setLocation(new ClassPathResource("bloomAdd.lua"));
+        ADD_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    //过滤器名称 -> 本地镜像
+    private final Map<String, AtomicLongArray> mirrors = new ConcurrentHashMap<>();
+
+    //过滤器名称 -> 查询全部id的函数 重新初始化时使用
+    private final Map<String, Supplier<Collection<?>>> loaders = new ConcurrentHashMap<>();
+
+    //过滤器名称 -> 本地镜像对应的版本号
+    private final Map<String, String> versions = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "bloom-resync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public RedisBloomFilter(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        scheduler.scheduleWithFixedDelay(this::resync, RedisConstants.BLOOM_RESYNC_INTERVAL,
+                RedisConstants.BLOOM_RESYNC_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Description  初始化布隆过滤器：Redis中已初始化则加载到本地镜像，否则用全部id生成后写入Redis
+     * @param: name 过滤器名称 一般使用缓存key的前缀
+     * @param: idLoader 查询全部id的函数 Redis中的过滤器未初始化或丢失时调用
+     * return void
+     */
+    public void init(String name, Supplier<Collection<?>> idLoader) {
+        loaders.put(name, idLoader);
+        load(name);
+    }
+
+    //添加id 写入Redis并通知所有实例更新本地镜像
+    public void add(String name, Object id) {
+        long[] offsets = offsets(id);
+        Long version = stringRedisTemplate.execute(ADD_SCRIPT, List.of(bitmapKey(name), seededKey(name)),
+                Arrays.stream(offsets).mapToObj(String::valueOf).toArray());
+        AtomicLongArray bits = mirrors.get(name);
+        if (bits != null) {
+            setBits(bits, id);
+        }
+        stringRedisTemplate.convertAndSend(RedisConstants.BLOOM_ADD_CHANNEL, name + ":" + id);
+        if (version == null || version < 0) {
+            //Redis中的过滤器没有初始化 立即在后台用全部id重新初始化
+            log.warn("布隆过滤器{}在Redis中未初始化，重新初始化", name);
+            scheduler.execute(() -> resync(name));
+        }
+    }
+
+    //判断id是否可能存在 过滤器未初始化时一律放行
+    public boolean mightContain(String name, Object id) {
+        AtomicLongArray bits = mirrors.get(name);
+        if (bits == null) {
+            return true;
+        }
+        for (long offset : offsets(id)) {
+            if ((bits.get((int) (offset >>> 6)) & (1L << offset)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //收到其他实例添加id的通知 消息格式为 name:id
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int index = body.lastIndexOf(':');
+        AtomicLongArray bits = mirrors.get(body.substring(0, index));
+        if (bits != null) {
+            setBits(bits, body.substring(index + 1));
+        }
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        scheduler.shutdown();
+    }
+
+    //定期检查所有过滤器 版本号变化或Redis中未初始化时重新加载
+    private void resync() {
+        loaders.keySet().forEach(this::resync);
+    }
+
+    private void resync(String name) {
+        try {
+            String version = stringRedisTemplate.opsForValue().get(seededKey(name));
+            if (version == null || !version.equals(versions.get(name))) {
+                load(name);
+            }
+        } catch (Exception e) {
+            log.warn("布隆过滤器{}同步失败", name, e);
+        }
+    }
+
+    //从Redis加载本地镜像 Redis中未初始化或bitmap已丢失时先用全部id初始化
+    private synchronized void load(String name) {
+        String version = stringRedisTemplate.opsForValue().get(seededKey(name));
+        byte[] bitmap = version == null ? null : getBitmap(name);
+        if (bitmap == null) {
+            if (version != null) {
+                //标记还在但bitmap已丢失(例如被淘汰) 删除标记后重新初始化
+                stringRedisTemplate.delete(seededKey(name));
+            }
+            seed(name);
+            version = stringRedisTemplate.opsForValue().get(seededKey(name));
+            bitmap = getBitmap(name);
+            if (bitmap == null) {
+                return;
+            }
+        }
+        AtomicLongArray bits = fromBitmap(bitmap);
+        //保留下载期间通过通知收到的id 下一次同步时会以Redis为准
+        AtomicLongArray old = mirrors.get(name);
+        if (old != null) {
+            for (int i = 0; i < old.length(); i++) {
+                long word = old.get(i);
+                if (word != 0) {
+                    bits.getAndAccumulate(i, word, (w, m) -> w | m);
+                }
+            }
+        }
+        mirrors.put(name, bits);
+        versions.put(name, version == null ? "" : version);
+    }
+
+    //用全部id生成bitmap写入Redis 多个实例同时初始化时只有一个能写入成功
+    private void seed(String name) {
+        AtomicLongArray bits = new AtomicLongArray(BIT_SIZE / 64);
+        Collection<?> ids = loaders.get(name).get();
+        for (Object id : ids) {
+            setBits(bits, id);
+        }
+        Long seeded = stringRedisTemplate.execute(SEED_SCRIPT, RedisSerializer.byteArray(),
+                new GenericToStringSerializer<>(Long.class),
+                List.of(bitmapKey(name), seededKey(name), bitmapKey(name) + ":seeding"), toBitmap(bits));
+        if (Long.valueOf(1L).equals(seeded)) {
+            log.info("布隆过滤器{}初始化完成，共{}个id", name, ids.size());
+        }
+    }
+
+    private byte[] getBitmap(String name) {
+        byte[] key = bitmapKey(name).getBytes(StandardCharsets.UTF_8);
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.stringCommands().get(key));
+    }
+
+    //bitmap、初始化标记、临时key使用相同的hash tag 集群中位于同一个槽位 脚本可以一起访问
+    private static String bitmapKey(String name) {
+        return RedisConstants.BLOOM_KEY + "{" + name + "}";
+    }
+
+    private static String seededKey(String name) {
+        return bitmapKey(name) + RedisConstants.BLOOM_SEEDED_SUFFIX;
+    }
+
+    private static void setBits(AtomicLongArray bits, Object id) {
+        for (long offset : offsets(id)) {
+            long mask = 1L << offset;
+            bits.getAndAccumulate((int) (offset >>> 6), mask, (word, m) -> word | m);
+        }
+    }
+
+    //双重哈希计算id对应的k个bit位置 id统一转为字符串 保证Long和String的id结果一致
+    private static long[] offsets(Object id) {
+        byte[] bytes = String.valueOf(id).getBytes(StandardCharsets.UTF_8);
+        //FNV-1a
+        long h1 = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            h1 ^= b;
+            h1 *= 0x100000001b3L;
+        }
+        //再做一次混淆得到第二个哈希值
+        long h2 = h1 ^ (h1 >>> 33);
+        h2 *= 0xff51afd7ed558ccdL;
+        h2 ^= h2 >>> 33;
+        long[] offsets = new long[HASH_COUNT];
+        for (int i = 0; i < HASH_COUNT; i++) {
+            offsets[i] = Math.floorMod(h1 + i * h2, BIT_SIZE);
+        }
+        return offsets;
+    }
+
+    //本地位数组 -> Redis bitmap (Redis中每个字节的最高位是第一个bit)
+    private static byte[] toBitmap(AtomicLongArray bits) {
+        byte[] bitmap = new byte[BIT_SIZE / 8];
+        for (int i = 0; i < bits.length(); i++) {
+            long word = bits.get(i);
+            if (word == 0) {
+                continue;
+            }
+            for (int j = 0; j < 64; j++) {
+                if ((word & (1L << j)) != 0) {
+                    int offset = i * 64 + j;
+                    bitmap[offset >>> 3] |= (byte) (0x80 >>> (offset & 7));
+                }
+            }
+        }
+        return bitmap;
+    }
+
+    //Redis bitmap -> 本地位数组
+    private static AtomicLongArray fromBitmap(byte[] bitmap) {
+        AtomicLongArray bits = new AtomicLongArray(BIT_SIZE / 64);
+        int length = Math.min(bitmap.length, BIT_SIZE / 8);
+        for (int i = 0; i < length; i++) {
+            if (bitmap[i] == 0) {
+                continue;
+            }
+            for (int j = 0; j < 8; j++) {
+                if ((bitmap[i] & (0x80 >>> j)) != 0) {
+                    long offset = i * 8L + j;
+                    bits.getAndAccumulate((int) (offset >>> 6), 1L << offset, (word, m) -> word | m);
+                }
+            }
+        }
+        return bits;
+    }
+}
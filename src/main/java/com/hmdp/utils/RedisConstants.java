@@ -10,15 +10,68 @@ public class RedisConstants {
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final int CACHE_SHOP_LOCAL_SIZE = 10000;//店铺本地缓存容量
+    public static final Long CACHE_SHOP_LOCAL_TTL = 60L;//店铺本地缓存存活时间(秒)
+
+    public static final double CACHE_EARLY_REFRESH_BETA = 1.0;//提前刷新系数 越大越早刷新
+
+    public static final Long HOT_KEY_WINDOW = 10L;//热点key探测的滑动窗口(秒)
+    public static final int HOT_KEY_THRESHOLD = 1000;//窗口内访问次数超过该值判定为热点key
+    public static final int HOT_KEY_SAMPLE_RATE = 10;//每10次访问抽样计数1次
+    public static final int HOT_KEY_LOCAL_SIZE = 1000;//热点key本地副本容量
+    public static final Long HOT_KEY_LOCAL_TTL = 5L;//热点key本地副本存活时间(秒)
+
+    public static final Long CACHE_WARM_UP_LOCK_TTL = 10L;//缓存预热锁有效期(分钟)
+    public static final String CACHE_WARM_UP_DONE_KEY = "cache:warm-up:done:";//预热成功的标记 拼接缓存key前缀
+    public static final Long CACHE_WARM_UP_DONE_TTL = 10L;//预热成功后多久之内其他实例不再预热(分钟)
+
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";//本地缓存失效通知频道
+
+    public static final String BLOOM_KEY = "bloom:";//布隆过滤器bitmap 拼接 {过滤器名称}
+    public static final String BLOOM_SEEDED_SUFFIX = ":seeded";//布隆过滤器初始化标记 值为版本号 每次添加id递增
+    public static final Long BLOOM_RESYNC_INTERVAL = 60L;//本地镜像与Redis同步检查的间隔(秒) 防止新增id通知丢失
+    public static final String BLOOM_ADD_CHANNEL = "bloom:add";//布隆过滤器新增id通知频道
 
     public static final Long CACHE_SHOPTYPE_TTL = 30L;
     public static final String CACHE_SHOPTYPE_KEY = "cache:shopType:";
+    public static final String CACHE_SHOPTYPE_VERSION_KEY = "cache:shopType:version";//店铺类型版本号 修改后递增
+    public static final String CACHE_SHOPTYPE_REFRESH_CHANNEL = "cache:shopType:refresh";//店铺类型刷新通知频道
+    public static final Long CACHE_SHOPTYPE_CHECK_INTERVAL = 30L;//本地快照检查版本号的间隔(秒) 防止刷新通知丢失
+
+    //以下TTL用于@HmdpCached注解 需要是基本类型的编译期常量
+    public static final String CACHE_USER_KEY = "cache:user:";//用户公开信息(UserDTO)
+    public static final long CACHE_USER_TTL = 30L;
+    public static final String CACHE_BLOG_KEY = "cache:blog:";//博客内容(不含点赞状态和作者信息)
+    public static final long CACHE_BLOG_TTL = 30L;
+    public static final String CACHE_SHOP_VOUCHER_KEY = "cache:voucher:shop:";//店铺的优惠券信息 不含实时库存
+    public static final long CACHE_SHOP_VOUCHER_TTL = 30L;
+
+    public static final String RESOURCE_VERSION_KEY = "version:";//资源版本号 拼接缓存前缀和id 用于HTTP的ETag 数据修改后更换
+    public static final Long RESOURCE_VERSION_TTL = 1L;//资源版本号有效期(天) 过期后生成新的版本号 客户端重新下载一次
+
+    public static final String CACHE_LOCK_KEY = "lock:";//缓存重建互斥锁 拼接完整的缓存key
+    public static final int CACHE_REBUILD_THREADS = 10;//缓存重建线程数
+    public static final int CACHE_REBUILD_QUEUE_SIZE = 1000;//缓存重建队列容量 满时丢弃最旧的任务
+
+    public static final int CACHE_ASYNC_LOADER_THREADS = 20;//异步缓存未命中时查询数据库的线程数
+    public static final int CACHE_ASYNC_LOADER_QUEUE_SIZE = 1000;//异步缓存加载队列容量 满时拒绝
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final String LOCK_SHOP_value = "1";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";//已下单用户 一人一单
+    public static final String SECKILL_STOCK_SPLIT_KEY = "seckill:stock:split";//旧的单key库存已拆分为库存段的标记 存在时启动不再迁移
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";//售罄/补充库存通知频道
+    public static final Long SECKILL_SOLD_OUT_TTL = 10L;//本地售罄标记存活时间(秒)
+    public static final Long SECKILL_EXPIRE_DELAY = 1L;//秒杀结束后库存段和已下单用户key继续保留的时间(天) 之后自动过期
+    public static final String SECKILL_ORDER_STREAM_KEY = "stream.orders:";//订单消息分区stream 拼接分区号
+    public static final String SECKILL_ORDER_LEGACY_STREAM_KEY = "stream.orders";//分区之前的单个stream 继续消费直到清空
+    public static final String SECKILL_ORDER_DEAD_LETTER_KEY = "stream.orders.dead";//多次处理失败的订单消息 人工排查后重新投递
+    public static final String SECKILL_ORDER_CONSUMERS_KEY = "stream.orders.consumers";//订单消费者注册表
+    public static final String SECKILL_ORDER_LEASE_KEY = "lease:";//分区租约 拼接分区stream key
+    public static final Long SECKILL_ORDER_LEASE_TTL = 30L;//分区租约有效期(秒) 消费者超过该时间未续约视为下线
     public static final String BLOG_LIKED_KEY = "blog:liked:";
 
     public static final String FOLLOWS_KEY = "follows:";
@@ -0,0 +1,83 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ErenMikasa
+ * Date 2024/10/22
+ */
+//资源版本号 作为HTTP条件请求的ETag
+//控制器先读取版本号(一次GET)判断客户端的缓存是否仍然有效 命中时直接返回304 不再查询缓存、反序列化或访问数据库
+//版本号是随机值而不是自增数字 Redis数据丢失后重新生成的版本号不会与客户端持有的旧ETag相同
+//数据修改后在事务提交之后更换版本号 应在删除缓存之后登记 保证拿到新版本号的请求不会读到旧缓存
+@Slf4j
+@Component
+public class ResourceVersions {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public ResourceVersions(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * Description  读取资源当前的版本号 不存在时生成一个
+     * @param: prefix 资源的缓存前缀 id 资源id
+     * return String 版本号 Redis不可用时返回null 调用方跳过条件请求判断
+     */
+    public String current(String prefix, Object id) {
+        String key = RedisConstants.RESOURCE_VERSION_KEY + prefix + id;
+        try {
+            String version = stringRedisTemplate.opsForValue().get(key);
+            if (version != null) {
+                return version;
+            }
+            //并发生成时只有一个写入成功 其他请求读取已写入的版本号
+            String generated = UUID.fastUUID().toString(true);
+            Boolean created = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(key, generated, RedisConstants.RESOURCE_VERSION_TTL, TimeUnit.DAYS);
+            return Boolean.TRUE.equals(created) ? generated : stringRedisTemplate.opsForValue().get(key);
+        } catch (Exception e) {
+            log.warn("读取资源版本号失败:{}", key, e);
+            return null;
+        }
+    }
+
+    /**
+     * Description  更换资源的版本号 有事务时在事务提交后更换 没有事务时立即更换
+     * @param: prefix 资源的缓存前缀 id 资源id
+     * return void
+     */
+    public void bumpAfterCommit(String prefix, Object id) {
+        String key = RedisConstants.RESOURCE_VERSION_KEY + prefix + id;
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            bump(key);
+            return;
+        }
+        //同步回调按登记顺序执行 在缓存删除之后登记即可保证先删缓存再更换版本号
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                bump(key);
+            }
+        });
+    }
+
+    //只更换已存在的版本号 不存在时说明没有客户端持有对应的ETag 下次读取时会生成新的版本号
+    private void bump(String key) {
+        try {
+            stringRedisTemplate.opsForValue().setIfPresent(key, UUID.fastUUID().toString(true),
+                    RedisConstants.RESOURCE_VERSION_TTL, TimeUnit.DAYS);
+        } catch (Exception e) {
+            //更换失败时客户端最多在版本号过期前继续使用旧数据
+            log.error("更换资源版本号失败:{}", key, e);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.TimedCache;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ErenMikasa
+ * Date 2024/10/22
+ */
+//秒杀券售罄标记 售罄后的请求直接在本地拒绝 不再执行秒杀脚本
+//某个实例发现售罄(脚本返回1)后通过发布订阅通知所有实例 补充库存后同样通知所有实例清除标记
+//标记有存活时间 通知丢失或库存被直接修改时 最多在存活时间后重新由脚本判断
+@Component
+public class SeckillSoldOutCache implements MessageListener {
+
+    private static final String SOLD_OUT = "+";
+    private static final String REPLENISHED = "-";
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    //已售罄的优惠券id
+    private final TimedCache<Long, Boolean> soldOut = CacheUtil.newTimedCache(
+            TimeUnit.SECONDS.toMillis(RedisConstants.SECKILL_SOLD_OUT_TTL));
+
+    public SeckillSoldOutCache(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        soldOut.schedulePrune(TimeUnit.SECONDS.toMillis(RedisConstants.SECKILL_SOLD_OUT_TTL));
+    }
+
+    //是否已售罄 只查询本地
+    public boolean isSoldOut(Long voucherId) {
+        return soldOut.containsKey(voucherId);
+    }
+
+    //标记售罄并通知所有实例 本地已标记时不再重复通知
+    public void markSoldOut(Long voucherId) {
+        if (soldOut.containsKey(voucherId)) {
+            return;
+        }
+        soldOut.put(voucherId, Boolean.TRUE);
+        stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_SOLD_OUT_CHANNEL, SOLD_OUT + voucherId);
+    }
+
+    //补充库存后清除标记并通知所有实例
+    public void clear(Long voucherId) {
+        soldOut.remove(voucherId);
+        stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_SOLD_OUT_CHANNEL, REPLENISHED + voucherId);
+    }
+
+    //收到其他实例的通知 更新本地标记
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        Long voucherId = Long.valueOf(body.substring(1));
+        if (body.startsWith(SOLD_OUT)) {
+            soldOut.put(voucherId, Boolean.TRUE);
+        } else {
+            soldOut.remove(voucherId);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * ErenMikasa
+ * Date 2024/10/22
+ */
+//秒杀库存分段 一张秒杀券的库存拆成K段 分散到不同的key上 热门券的扣减不再集中在一个key(一个槽位、一个Redis线程)
+//秒杀脚本要在一次调用中访问 库存段、已下单用户段、订单消息分区stream 集群模式下这三个key必须在同一个槽位：
+//  第n段的key以第n个分区的stream key作为hash tag 例如 seckill:stock:12:{stream.orders:3} 与 stream.orders:3 在同一个槽位
+//  因此分段数不能超过订单消息分区数 分段数上线后不要修改(已有的库存段不会重新分配)
+//每一段是一个hash 除库存外还保存秒杀的开始和结束时间 脚本在扣减库存的同一次调用中判断时间窗口
+@Component
+public class SeckillStockSegments {
+
+    public static final String STOCK_FIELD = "stock";//库存
+    public static final String BEGIN_FIELD = "begin";//开始时间(毫秒时间戳)
+    public static final String END_FIELD = "end";//结束时间(毫秒时间戳)
+
+    private final int segments;
+
+    public SeckillStockSegments(@Value("${hmdp.seckill.partitions:8}") int partitions,
+                                @Value("${hmdp.seckill.stock-segments:8}") int segments) {
+        if (segments < 1 || segments > partitions) {
+            throw new IllegalStateException("hmdp.seckill.stock-segments必须在1到分区数" + partitions + "之间");
+        }
+        this.segments = segments;
+    }
+
+    //分段数
+    public int segments() {
+        return segments;
+    }
+
+    //用户首先尝试的库存段 分段数等于分区数时就是该用户订单消息原本所在的分区
+    public int homeSegment(Long userId) {
+        return Math.floorMod(userId, segments);
+    }
+
+    //第n段所在的订单消息分区stream
+    public String streamKey(int segment) {
+        return RedisConstants.SECKILL_ORDER_STREAM_KEY + segment;
+    }
+
+    //第n段的库存hash key
+    public String stockKey(Long voucherId, int segment) {
+        return RedisConstants.SECKILL_STOCK_KEY + voucherId + ":{" + streamKey(segment) + "}";
+    }
+
+    //第n段的已下单用户key
+    public String orderKey(Long voucherId, int segment) {
+        return RedisConstants.SECKILL_ORDER_KEY + voucherId + ":{" + streamKey(segment) + "}";
+    }
+
+    /**
+     * Description  把库存尽量平均地分到各段 余数分给前面的段
+     * @param: total 总库存
+     * return int[] 每一段的库存
+     */
+    public int[] split(int total) {
+        int[] stocks = new int[segments];
+        for (int i = 0; i < segments; i++) {
+            stocks[i] = total / segments + (i < total % segments ? 1 : 0);
+        }
+        return stocks;
+    }
+}
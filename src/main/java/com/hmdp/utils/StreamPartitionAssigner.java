@@ -0,0 +1,104 @@
+package com.hmdp.utils;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ErenMikasa
+ * Date 2024/10/22
+ */
+//把多个分区stream分配给消费者组内的消费者 每个分区同一时间只由一个消费者处理
+//  1.消费者定期在注册表(zset 分数为心跳时间)中心跳 超时未心跳的视为下线
+//  2.所有存活的消费者按名称排序 第i个分区分配给第 i % 消费者数 个消费者 各消费者独立计算得到相同的结果
+//  3.分配只是意向 真正处理前还要获取该分区的租约 消费者数量变化的过渡期内也不会有两个消费者同时处理一个分区
+public class StreamPartitionAssigner {
+
+    public static final DefaultRedisScript<Long> LEASE_SCRIPT;
+    static {
+        LEASE_SCRIPT = new DefaultRedisScript<>();
+        LEASE_SCRIPT.setLocation(new ClassPathResource("leaseAcquire.lua"));//resources资源夹下脚本文件
+        LEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final List<String> streamKeys;//所有分区的stream key
+
+    private final String registryKey;//消费者注册表
+
+    private final String leaseKeyPrefix;//分区租约key前缀 拼接stream key
+
+    private final long leaseTtlMillis;//租约有效期 同时也是消费者的心跳超时时间
+
+    public StreamPartitionAssigner(StringRedisTemplate stringRedisTemplate, List<String> streamKeys,
+                                   String registryKey, String leaseKeyPrefix, long leaseTtl, TimeUnit unit) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.streamKeys = List.copyOf(streamKeys);
+        this.registryKey = registryKey;
+        this.leaseKeyPrefix = leaseKeyPrefix;
+        this.leaseTtlMillis = unit.toMillis(leaseTtl);
+    }
+
+    /**
+     * Description  心跳并重新计算分配 获取或续约分配给自己的分区租约 释放不再分配给自己的分区
+     * @param: consumer 消费者名称
+     * @param: owned 上一次持有的分区
+     * @param: acquired 输出参数 本次新获得的分区 原持有者未确认的消息需要接管
+     * return List<String> 当前持有租约的分区stream key
+     */
+    public List<String> rebalance(String consumer, Collection<String> owned, List<String> acquired) {
+        long now = System.currentTimeMillis();
+        stringRedisTemplate.opsForZSet().add(registryKey, consumer, now);
+        stringRedisTemplate.opsForZSet().removeRangeByScore(registryKey, 0, now - leaseTtlMillis);
+        Set<String> members = stringRedisTemplate.opsForZSet().range(registryKey, 0, -1);
+        List<String> consumers = members == null ? new ArrayList<>() : new ArrayList<>(members);
+        if (!consumers.contains(consumer)) {
+            consumers.add(consumer);
+        }
+        Collections.sort(consumers);
+        int index = consumers.indexOf(consumer);
+
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < streamKeys.size(); i++) {
+            String streamKey = streamKeys.get(i);
+            String leaseKey = leaseKeyPrefix + streamKey;
+            if (i % consumers.size() != index) {
+                //不再分配给自己 释放租约 由新的消费者获取
+                if (owned.contains(streamKey)) {
+                    release(leaseKey, consumer);
+                }
+                continue;
+            }
+            Long success = stringRedisTemplate.execute(LEASE_SCRIPT, Collections.singletonList(leaseKey),
+                    consumer, String.valueOf(leaseTtlMillis));
+            if (success != null && success == 1L) {
+                result.add(streamKey);
+                if (!owned.contains(streamKey)) {
+                    acquired.add(streamKey);
+                }
+            }
+        }
+        return result;
+    }
+
+    //消费者停止 释放持有的分区并从注册表中移除
+    public void leave(String consumer, Collection<String> owned) {
+        for (String streamKey : owned) {
+            release(leaseKeyPrefix + streamKey, consumer);
+        }
+        stringRedisTemplate.opsForZSet().remove(registryKey, consumer);
+    }
+
+    //只释放自己持有的租约
+    private void release(String leaseKey, String consumer) {
+        stringRedisTemplate.execute(SimpleRedisLock.UNLOCK_SCRIPT, Collections.singletonList(leaseKey), consumer);
+    }
+}
@@ -5,4 +5,9 @@ public class SystemConstants {
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    public static final int SECKILL_ORDER_BATCH_SIZE = 100;//每次从消息队列读取并写入数据库的订单数
+    public static final long SECKILL_ORDER_REBALANCE_INTERVAL = 5L;//订单消费者心跳并重新分配分区的间隔(秒)
+    public static final long SECKILL_ORDER_MAX_DELIVERIES = 10L;//订单消息投递超过该次数仍处理失败 转入死信stream
+    public static final long SECKILL_ORDER_RETRY_INTERVAL = 1000L;//pending-list中有订单处理失败时 重试前等待的时间(毫秒)
+    public static final long SHOP_TYPE_MAX_AGE = 60L;//店铺类型列表允许浏览器直接使用本地副本的时间(秒)
 }
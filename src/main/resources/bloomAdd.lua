@@ -0,0 +1,10 @@
+--- 向布隆过滤器添加id KEYS[1] bitmap KEYS[2] 初始化标记 ARGV 要置1的bit位置
+for i = 1, #ARGV do
+    redis.call('setbit', KEYS[1], ARGV[i], 1)
+end
+-- 过滤器未初始化(例如Redis数据丢失) 返回-1 由调用方用全部id重新初始化
+if(redis.call('exists', KEYS[2]) == 0) then
+    return -1
+end
+-- 递增版本号 各实例定期比较版本号决定是否重新加载本地镜像
+return redis.call('incr', KEYS[2])
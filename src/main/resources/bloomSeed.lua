@@ -0,0 +1,12 @@
+--- 用全部id生成的bitmap初始化布隆过滤器 已经初始化过则直接返回0
+--- KEYS[1] bitmap KEYS[2] 初始化标记(值为版本号) KEYS[3] 临时key(三个key的hash tag相同)
+--- ARGV[1] 本地生成的bitmap
+if(redis.call('exists', KEYS[2]) == 1) then
+    return 0
+end
+-- 未初始化时add写入的bit不能丢失 与生成的bitmap按位或合并
+redis.call('set', KEYS[3], ARGV[1])
+redis.call('bitop', 'or', KEYS[1], KEYS[1], KEYS[3])
+redis.call('del', KEYS[3])
+redis.call('set', KEYS[2], 0)
+return 1
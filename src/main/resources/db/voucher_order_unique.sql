@@ -0,0 +1,12 @@
+-- 一人一单的最终保证：同一用户同一优惠券只能有一个订单
+-- 库存分段后用户的订单可能进入不同的分区 由不同的消费者写入 写入前的去重查询看不到对方未提交的数据 由唯一索引兜底
+-- 项目没有数据库迁移工具 需要在部署新版本之前手动执行 缺少该索引时应用启动失败(VoucherOrderServiceImpl.checkUniqueIndex)
+
+-- 1.执行前先查出已有的重复订单 人工处理(退款/删除多余的订单)
+SELECT user_id, voucher_id, COUNT(*) AS orders
+FROM tb_voucher_order
+GROUP BY user_id, voucher_id
+HAVING COUNT(*) > 1;
+
+-- 2.创建唯一索引
+ALTER TABLE tb_voucher_order ADD UNIQUE KEY uk_user_voucher (user_id, voucher_id);
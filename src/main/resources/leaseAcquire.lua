@@ -0,0 +1,15 @@
+-- 获取或续约租约 保证同一时间只有一个持有者
+-- KEYS[1]为租约的key ARGV[1]为持有者标识 ARGV[2]为有效期(毫秒)
+local owner = redis.call('GET', KEYS[1])
+if (owner == false) then
+    -- 无人持有 获取租约
+    redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[2])
+    return 1
+end
+if (owner == ARGV[1]) then
+    -- 自己持有 续约
+    redis.call('PEXPIRE', KEYS[1], ARGV[2])
+    return 1
+end
+-- 被其他持有者占用
+return 0
@@ -0,0 +1,11 @@
+-- 原子地初始化列表缓存 防止多个请求同时未命中时重复追加元素
+-- KEYS[1]为列表的key ARGV[1]为过期时间(毫秒) ARGV[2]开始为列表元素
+if(redis.call('EXISTS', KEYS[1]) == 1) then
+    -- 其他请求已经初始化过 直接返回
+    return 0
+end
+for i = 2, #ARGV do
+    redis.call('RPUSH', KEYS[1], ARGV[i])
+end
+redis.call('PEXPIRE', KEYS[1], ARGV[1])
+return 1
@@ -8,28 +8,50 @@ local voucherId=ARGV[1]
 local userId=ARGV[2]
 local orderId = ARGV[3]
 
--- 2.存储到Redis的key 库存key 订单key
-local stockKey='seckill:stock:' .. voucherId
-local orderKey='seckill:order:' .. voucherId
+-- 2.存储到Redis的key 库存段hash 已下单用户段key 库存段所在的分区stream(三个key的hash tag相同 集群中位于同一个槽位)
+local stockKey=KEYS[1]
+local orderKey=KEYS[2]
+local streamKey=KEYS[3]
 
--- 3.判断库存是否充足
-if(tonumber(redis.call('GET',stockKey)) <= 0) then
-    -- 库存不足则返回1
+-- 3.读取这一段的库存和秒杀时间窗口 库存段不存在(未预加载或秒杀结束后已过期)视为库存不足
+local meta = redis.call('hmget', stockKey, 'stock', 'begin', 'end')
+local stock = tonumber(meta[1])
+if(stock == nil) then
     return 1
 end
 
---4.判断用户是否下单过 实现一人一单 SISMEMBER(set集合) orderKey userId
+-- 4.用Redis服务器时间判断是否在秒杀时间内 3:尚未开始 4:已经结束
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+if(meta[2] and now < tonumber(meta[2])) then
+    return 3
+end
+if(meta[3] and now > tonumber(meta[3])) then
+    return 4
+end
+
+--5.判断用户是否在这一段下单过 实现一人一单 SISMEMBER(set集合) orderKey userId
 if(redis.call('sismember',orderKey,userId) == 1) then
     return 2
 end
 
---5.可以下单，扣减库存
-redis.call('incrby',stockKey,-1)
+-- 6.判断这一段的库存是否充足
+if(stock <= 0) then
+    -- 库存不足则返回1 由调用方尝试下一段
+    return 1
+end
+
+--7.可以下单，扣减库存
+redis.call('hincrby',stockKey,'stock',-1)
 
---6.记录下单用户,保存到set集合中
+--8.记录下单用户,保存到set集合中 与库存段同时过期
 redis.call('sadd',orderKey,userId)
---7.将下单数据保存到消息队列中
-redis.call("xadd", 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+local ttl = redis.call('pttl',stockKey)
+if(ttl > 0) then
+    redis.call('pexpire',orderKey,ttl)
+end
+--9.将下单数据保存到消息队列中
+redis.call("xadd", streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
 
--- 8.最终成功下单，返回0
+-- 10.最终成功下单，返回0
 return 0
@@ -0,0 +1,8 @@
+--- 在用户所属的库存段记录已下单用户 与该库存段同时过期
+--- KEYS[1] 库存段hash KEYS[2] 已下单用户段key(两者在同一个槽位) ARGV[1] 用户ID
+redis.call('sadd', KEYS[2], ARGV[1])
+local ttl = redis.call('pttl', KEYS[1])
+if(ttl > 0) then
+    redis.call('pexpire', KEYS[2], ttl)
+end
+return 0
@@ -0,0 +1,96 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.hmdp.entity.Shop;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ErenMikasa
+ * Date 2024/10/22
+ */
+//BinaryCacheCodec与JsonCacheCodec的编解码耗时和体积对比 数据大小覆盖压缩阈值(1024字节)两侧
+//只是粗略的基准 先预热再计时 结果打印到控制台；不是单元测试 不会在mvn test中执行 需要时直接运行main方法
+//编解码的正确性由CacheCodecTest校验
+public class CacheCodecBenchmark {
+
+    private static final int WARM_UP = 2_000;
+    private static final int ITERATIONS = 20_000;
+
+    private final ObjectMapper objectMapper = JsonMapper.builder().findAndAddModules().build();
+
+    private final CacheCodec binary = new BinaryCacheCodec(objectMapper, 1024);
+
+    private final CacheCodec json = new JsonCacheCodec();
+
+    public static void main(String[] args) {
+        new CacheCodecBenchmark().compareCodecs();
+    }
+
+    private void compareCodecs() {
+        //图片数量 对应的JSON大约为 0.4KB 0.6KB 1.6KB 11KB 跨过压缩阈值
+        for (int images : new int[]{1, 5, 20, 160}) {
+            Shop value = payload(images);
+            run("binary", binary, value);
+            run("json", json, value);
+        }
+    }
+
+    private void run(String name, CacheCodec codec, Shop value) {
+        long expireTime = System.currentTimeMillis() + 60_000;
+        byte[] bytes = codec.encode(value, expireTime, 20);
+        for (int i = 0; i < WARM_UP; i++) {
+            codec.decode(codec.encode(value, expireTime, 20), Shop.class);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            bytes = codec.encode(value, expireTime, 20);
+        }
+        long encode = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            codec.decode(bytes, Shop.class);
+        }
+        long decode = System.nanoTime() - start;
+        start = System.nanoTime();
+        long sink = 0;//累加结果 防止被JIT当作无用代码消除
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += codec.expireTime(bytes);
+        }
+        long expire = System.nanoTime() - start;
+        if (sink != expireTime * ITERATIONS) {
+            throw new IllegalStateException(name + "读取的逻辑过期时间不正确");
+        }
+        System.out.printf("%-6s size=%6dB encode=%7.2fus decode=%7.2fus expireTime=%7.3fus%n", name, bytes.length,
+                encode / 1000.0 / ITERATIONS, decode / 1000.0 / ITERATIONS, expire / 1000.0 / ITERATIONS);
+    }
+
+    //店铺图片数量决定数据大小 图片地址前缀相同、文件名随机 压缩率与真实数据接近
+    static Shop payload(int images) {
+        List<String> urls = new ArrayList<>(images);
+        for (int i = 0; i < images; i++) {
+            urls.add("https://qcloud.dpfile.com/pc/" + UUID.randomUUID().toString(true) + ".jpg");
+        }
+        LocalDateTime now = LocalDateTime.now().withNano(0);
+        return new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages(String.join(",", urls))
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(now)
+                .setUpdateTime(now);
+    }
+}
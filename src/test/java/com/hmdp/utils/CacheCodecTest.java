@@ -0,0 +1,75 @@
+package com.hmdp.utils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * ErenMikasa
+ * Date 2024/10/22
+ */
+//缓存编解码器的正确性：编码后能还原出相同的数据和数据头 超过阈值时压缩 只识别自己写入的格式
+class CacheCodecTest {
+
+    private static final int THRESHOLD = 1024;
+
+    private final ObjectMapper objectMapper = JsonMapper.builder().findAndAddModules().build();
+
+    private final BinaryCacheCodec binary = new BinaryCacheCodec(objectMapper, THRESHOLD);
+
+    private final JsonCacheCodec json = new JsonCacheCodec();
+
+    @Test
+    void binaryRoundTrip() {
+        Shop shop = CacheCodecBenchmark.payload(1);
+        long expireTime = System.currentTimeMillis() + 60_000;
+        byte[] bytes = binary.encode(shop, expireTime, 20);
+        assertTrue(binary.supports(bytes));
+        assertEquals(expireTime, binary.expireTime(bytes));
+        assertEquals(20, binary.rebuildCost(bytes));
+        assertEquals(shop, binary.decode(bytes, Shop.class));
+    }
+
+    @Test
+    void binaryCompressesAboveThreshold() throws JsonProcessingException {
+        //小于阈值 不压缩 数据部分就是原始JSON
+        Shop small = CacheCodecBenchmark.payload(1);
+        byte[] plain = binary.encode(small, 0);
+        assertEquals(0, plain[BinaryCacheCodec.HEADER_LENGTH - 1]);
+        assertTrue(plain.length - BinaryCacheCodec.HEADER_LENGTH <= THRESHOLD);
+        assertEquals(objectMapper.writeValueAsString(small), binary.rawJson(plain).toString());
+        //超过阈值 压缩后存储 解码和取出JSON时自动解压
+        Shop large = CacheCodecBenchmark.payload(160);
+        byte[] compressed = binary.encode(large, 0);
+        assertEquals(1, compressed[BinaryCacheCodec.HEADER_LENGTH - 1]);
+        assertEquals(large, binary.decode(compressed, Shop.class));
+        assertTrue(compressed.length < objectMapper.writeValueAsBytes(large).length);
+        assertEquals(objectMapper.writeValueAsString(large), binary.rawJson(compressed).toString());
+    }
+
+    @Test
+    void binaryRejectsOtherVersions() {
+        byte[] bytes = binary.encode(CacheCodecBenchmark.payload(1), 0);
+        bytes[1] = 2;
+        assertFalse(binary.supports(bytes));
+        assertFalse(binary.supports(new byte[]{bytes[0]}));
+        assertFalse(json.supports(binary.encode(CacheCodecBenchmark.payload(1), 0)));
+    }
+
+    @Test
+    void jsonRoundTrip() {
+        Shop shop = CacheCodecBenchmark.payload(1);
+        long expireTime = System.currentTimeMillis() / 1000 * 1000 + 60_000;
+        byte[] bytes = json.encode(shop, expireTime);
+        assertTrue(json.supports(bytes));
+        assertFalse(binary.supports(bytes));
+        assertEquals(expireTime, json.expireTime(bytes));
+        assertEquals(shop, json.decode(bytes, Shop.class));
+    }
+}